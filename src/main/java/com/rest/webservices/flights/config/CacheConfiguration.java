@@ -0,0 +1,59 @@
+package com.rest.webservices.flights.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caffeine caches configured from application.properties. Each cache gets its own
+ * <a href="https://github.com/ben-manes/caffeine/wiki/Specification">Caffeine spec</a> (maximum size or weight,
+ * expiration, statistics...) from flights.cache.specs.[name]; caches without a spec use flights.cache.default-spec.
+ * Caffeine evicts by frequency (W-TinyLFU), so popular pairs stay cached when the maximum size is reached.
+ * The statistics are published as cache.* metrics in /actuator/metrics when the spec has recordStats.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "flights.cache")
+public class CacheConfiguration {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private String defaultSpec = "maximumSize=1000,expireAfterWrite=1h,recordStats";
+
+    private Map<String, String> specs = new HashMap<>();
+
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.setCaffeineSpec(CaffeineSpec.parse(defaultSpec));
+        specs.forEach((name, spec) -> {
+            logger.info(String.format("cache %s: %s", name, spec));
+            cacheManager.registerCustomCache(name, Caffeine.from(spec).build());
+        });
+        return cacheManager;
+    }
+
+    public String getDefaultSpec() {
+        return defaultSpec;
+    }
+
+    public void setDefaultSpec(String defaultSpec) {
+        this.defaultSpec = defaultSpec;
+    }
+
+    public Map<String, String> getSpecs() {
+        return specs;
+    }
+
+    public void setSpecs(Map<String, String> specs) {
+        this.specs = specs;
+    }
+}
@@ -0,0 +1,154 @@
+package com.rest.webservices.flights.config;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Bounded thread pools configured from flights.executor.[upstream|search|streaming] in application.properties:
+ * <ul>
+ *     <li>upstreamExecutor: handles the upstream responses (conversion and caching of the timetables) and the
+ *     background upstream requests, so they do not run on the HTTP client threads</li>
+ *     <li>searchExecutor: CPU work of the searches chained to the timetables (building the itineraries)</li>
+ *     <li>streamingExecutor: Spring MVC async requests, the streamed searches writing their interconnections</li>
+ * </ul>
+ * When a pool and its queue are full the task runs in the thread submitting it, so the load slows down the callers
+ * instead of failing. The pools are published as executor.* metrics (active, queued, pool.size...) tagged with
+ * name=upstream|search|streaming in /actuator/metrics.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "flights.executor")
+public class ExecutorConfiguration implements WebMvcConfigurer {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private Pool upstream = new Pool(8, 32, 1000);
+
+    private Pool search = new Pool(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(), 1000);
+
+    private Pool streaming = new Pool(8, 32, 100);
+
+    @Bean
+    public ThreadPoolTaskExecutor upstreamExecutor() {
+        return executor("upstream-", upstream);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor searchExecutor() {
+        return executor("search-", search);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor streamingExecutor() {
+        return executor("streaming-", streaming);
+    }
+
+    /**
+     * The async requests run in streamingExecutor instead of the default executor, which starts a thread per request
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingExecutor());
+    }
+
+    @Bean
+    public MeterBinder executorsMetrics(@Qualifier("upstreamExecutor") ThreadPoolTaskExecutor upstreamExecutor,
+                                        @Qualifier("searchExecutor") ThreadPoolTaskExecutor searchExecutor,
+                                        @Qualifier("streamingExecutor") ThreadPoolTaskExecutor streamingExecutor) {
+        return registry -> {
+            new ExecutorServiceMetrics(upstreamExecutor.getThreadPoolExecutor(), "upstream", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(searchExecutor.getThreadPoolExecutor(), "search", Tags.empty()).bindTo(registry);
+            new ExecutorServiceMetrics(streamingExecutor.getThreadPoolExecutor(), "streaming", Tags.empty()).bindTo(registry);
+        };
+    }
+
+    private ThreadPoolTaskExecutor executor(String threadNamePrefix, Pool pool) {
+        logger.info(String.format("executor %s: core %d, max %d, queue %d", threadNamePrefix, pool.getCoreSize(),
+                pool.getMaxSize(), pool.getQueueCapacity()));
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pool.getCoreSize());
+        executor.setMaxPoolSize(pool.getMaxSize());
+        executor.setQueueCapacity(pool.getQueueCapacity());
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    public Pool getUpstream() {
+        return upstream;
+    }
+
+    public void setUpstream(Pool upstream) {
+        this.upstream = upstream;
+    }
+
+    public Pool getSearch() {
+        return search;
+    }
+
+    public void setSearch(Pool search) {
+        this.search = search;
+    }
+
+    public Pool getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(Pool streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Size of a thread pool. Threads over the core size are only created when the queue is full
+     */
+    public static class Pool {
+        private int coreSize;
+        private int maxSize;
+        private int queueCapacity;
+
+        public Pool() {
+        }
+
+        public Pool(int coreSize, int maxSize, int queueCapacity) {
+            this.coreSize = coreSize;
+            this.maxSize = maxSize;
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getCoreSize() {
+            return coreSize;
+        }
+
+        public void setCoreSize(int coreSize) {
+            this.coreSize = coreSize;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+}
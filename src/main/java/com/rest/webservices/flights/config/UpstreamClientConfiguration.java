@@ -0,0 +1,292 @@
+package com.rest.webservices.flights.config;
+
+import com.rest.webservices.flights.integration.CircuitBreaker;
+import com.rest.webservices.flights.integration.ConcurrencyLimiter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import io.netty.channel.ChannelOption;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP clients of the upstream API configured from flights.upstream in application.properties: the routes are
+ * requested with Apache HttpClient (RestTemplate) and the schedules with Reactor Netty (WebClient). Both keep
+ * a pool of keep-alive connections, so the requests do not pay a new connection and TLS handshake each, and ask
+ * for compressed responses.
+ * The pools are published in /actuator/metrics as httpcomponents.httpclient.pool.* (routes) and
+ * reactor.netty.connection.provider.* (schedules) metrics.
+ * The schedules requests in flight are limited by an adaptive {@link ConcurrencyLimiter} configured with
+ * flights.upstream.limiter, and the routes and schedules requests go through a {@link CircuitBreaker} each,
+ * configured with flights.upstream.breaker.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "flights.upstream")
+public class UpstreamClientConfiguration {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private int maxConnections = 100;
+
+    private int maxConnectionsPerRoute = 50;
+
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    private Duration readTimeout = Duration.ofSeconds(10);
+
+    // idle connections are closed after it, the connections in use are kept as long as the server keeps them
+    private Duration keepAlive = Duration.ofSeconds(30);
+
+    private Limiter limiter = new Limiter();
+
+    private Breaker breaker = new Breaker();
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager upstreamConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        return connectionManager;
+    }
+
+    /**
+     * Client of the routes. Apache HttpClient asks for gzip responses and reuses the connections by default
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient upstreamHttpClient(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        logger.info(String.format("upstream clients: %d connections (%d per route), connect timeout %s, read timeout %s, keep alive %s",
+                maxConnections, maxConnectionsPerRoute, connectTimeout, readTimeout, keepAlive));
+        return HttpClients
+                .custom()
+                .setConnectionManager(upstreamConnectionManager)
+                .setDefaultRequestConfig(RequestConfig
+                        .custom()
+                        .setConnectTimeout((int) connectTimeout.toMillis())
+                        .setConnectionRequestTimeout((int) connectTimeout.toMillis())
+                        .setSocketTimeout((int) readTimeout.toMillis())
+                        .build())
+                .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder builder, CloseableHttpClient upstreamHttpClient) {
+        return builder
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(upstreamHttpClient))
+                .build();
+    }
+
+    /**
+     * Connections of the WebClient. Reactor Netty keeps a pool per host, and the schedules are all requested to
+     * the same one, so it is bounded by both max-connections-per-route and max-connections
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider upstreamConnectionProvider() {
+        return ConnectionProvider
+                .builder("upstream")
+                .maxConnections(Math.min(maxConnections, maxConnectionsPerRoute))
+                .pendingAcquireTimeout(connectTimeout.plus(readTimeout))
+                .maxIdleTime(keepAlive)
+                .metrics(true)
+                .build();
+    }
+
+    /**
+     * Connector of the WebClient, used by the schedules
+     */
+    @Bean
+    public ReactorClientHttpConnector upstreamClientHttpConnector(ConnectionProvider upstreamConnectionProvider) {
+        return new ReactorClientHttpConnector(HttpClient
+                .create(upstreamConnectionProvider)
+                .tcpConfiguration(tcpClient -> tcpClient
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis()))
+                .compress(true)
+                .responseTimeout(readTimeout));
+    }
+
+    @Bean
+    public WebClient webClient(WebClient.Builder builder) {
+        return builder.build();
+    }
+
+    @Bean
+    public ConcurrencyLimiter schedulesLimiter() {
+        logger.info(String.format("schedules limiter: %d requests in flight (%d - %d), %d queued, slow after %s",
+                limiter.getInitialLimit(), limiter.getMinLimit(), limiter.getMaxLimit(), limiter.getMaxQueued(),
+                limiter.getSlow()));
+        return new ConcurrencyLimiter("schedules", limiter.getInitialLimit(), limiter.getMinLimit(),
+                limiter.getMaxLimit(), limiter.getMaxQueued(), limiter.getSlow(), limiter.getBackoffRatio());
+    }
+
+    @Bean
+    public CircuitBreaker schedulesBreaker() {
+        return new CircuitBreaker("schedules", breaker.getFailureThreshold(), breaker.getOpenDuration());
+    }
+
+    @Bean
+    public CircuitBreaker routesBreaker() {
+        return new CircuitBreaker("routes", breaker.getFailureThreshold(), breaker.getOpenDuration());
+    }
+
+    @Bean
+    public MeterBinder upstreamConnectionsMetrics(PoolingHttpClientConnectionManager upstreamConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(upstreamConnectionManager, "upstream");
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public Limiter getLimiter() {
+        return limiter;
+    }
+
+    public void setLimiter(Limiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public Breaker getBreaker() {
+        return breaker;
+    }
+
+    public void setBreaker(Breaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Consecutive failures that open a circuit and time it stays open, see {@link CircuitBreaker}
+     */
+    public static class Breaker {
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+    }
+
+    /**
+     * Limit of requests in flight, see {@link ConcurrencyLimiter}
+     */
+    public static class Limiter {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 50;
+        private int maxQueued = 1000;
+        // requests answered after it lower the limit as the failed ones
+        private Duration slow = Duration.ofSeconds(2);
+        private double backoffRatio = 0.9;
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+
+        public Duration getSlow() {
+            return slow;
+        }
+
+        public void setSlow(Duration slow) {
+            this.slow = slow;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+    }
+}
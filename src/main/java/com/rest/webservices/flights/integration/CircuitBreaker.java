@@ -0,0 +1,123 @@
+package com.rest.webservices.flights.integration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Stops sending requests to an upstream that keeps failing. After failureThreshold consecutive failures the circuit
+ * opens and the requests are rejected straight away with a {@link RejectedExecutionException}. Once open for
+ * openDuration the next request is let through as a probe (half open): if it succeeds the circuit closes, otherwise
+ * it opens again for another openDuration.
+ * The state is published as the upstream.circuit.state metric (0 closed, 1 half open, 2 open), tagged with the name.
+ */
+public class CircuitBreaker implements MeterBinder {
+
+    public enum State {CLOSED, HALF_OPEN, OPEN}
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+        this.name = name;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @param request sends the request, it is not called if the circuit is open
+     * @return a future completed as the one of the request, or exceptionally if the circuit is open. Requests
+     * rejected with a {@link RejectedExecutionException} (not sent) do not count as failures
+     */
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!allowRequest()) {
+            result.completeExceptionally(new RejectedExecutionException(String.format("%s: circuit open", name)));
+            return result;
+        }
+        CompletableFuture<T> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((value, e) -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause == null) {
+                onSuccess();
+                result.complete(value);
+            } else {
+                if (cause instanceof RejectedExecutionException) {
+                    onNotSent();
+                } else {
+                    onFailure();
+                }
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return true if a request can be sent. When the circuit has been open for openDuration, the request is
+     * the probe and the circuit is half open until {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * The allowed request was not sent, a probe is let through again with the next request
+     */
+    private synchronized void onNotSent() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true while the requests are rejected: open for less than openDuration, or half open with the probe
+     * in flight. Once openDuration is over the next request is sent as the probe
+     */
+    public synchronized boolean isOpen() {
+        return state == State.HALF_OPEN || (state == State.OPEN && System.nanoTime() - openedAt < openNanos);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("upstream.circuit.state", this, breaker -> breaker.getState().ordinal()).tag("name", name).register(registry);
+    }
+}
@@ -0,0 +1,147 @@
+package com.rest.webservices.flights.integration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Limits the requests in flight to the upstream with an AIMD (additive increase, multiplicative decrease) limit:
+ * every request answered within the slow threshold raises the limit by 1 / limit, about one more request per round
+ * of requests, as long as at least half of the limit is in use, so an idle limiter does not grow unbounded.
+ * A failed or slow request multiplies it by the backoff ratio, once per round: the requests sent before the last
+ * decrease saw the old limit, so their failures do not decrease it again. The limit stays between the min and max
+ * limits.
+ * Requests over the limit wait in a queue and are sent as the requests in flight finish. They are only rejected,
+ * with a {@link RejectedExecutionException}, when the queue is full.
+ * The limiter is published as upstream.limiter.limit, upstream.limiter.in-flight, upstream.limiter.queued and
+ * upstream.limiter.rejected metrics, tagged with its name.
+ */
+public class ConcurrencyLimiter implements MeterBinder {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long slowNanos;
+    private final double backoffRatio;
+
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private double limit;
+    private int inFlight;
+    // sequence of the first request sent after the last decrease
+    private long decreasedAt;
+
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int maxQueued,
+                              Duration slow, double backoffRatio) {
+        this.name = name;
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.maxQueued = maxQueued;
+        this.slowNanos = slow.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    /**
+     * Send the request now if the limit allows it, or once there is room for it
+     *
+     * @param request sends the request, it is not called if the request is rejected
+     * @return a future completed as the one of the request, or exceptionally if the request is rejected
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable send = () -> send(request, result);
+        synchronized (this) {
+            if (inFlight >= (int) limit) {
+                if (queued.size() < maxQueued) {
+                    queued.add(send);
+                } else {
+                    rejected.incrementAndGet();
+                    result.completeExceptionally(new RejectedExecutionException(
+                            String.format("%s: %d requests in flight and %d queued", name, inFlight, queued.size())));
+                }
+                return result;
+            }
+            inFlight++;
+        }
+        send.run();
+        return result;
+    }
+
+    private <T> void send(Supplier<CompletableFuture<T>> request, CompletableFuture<T> result) {
+        long sequence = sent.getAndIncrement();
+        long start = System.nanoTime();
+        CompletableFuture<T> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((value, e) -> {
+            release(sequence, e == null && System.nanoTime() - start <= slowNanos);
+            if (e == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void release(long sequence, boolean success) {
+        List<Runnable> send = new ArrayList<>();
+        synchronized (this) {
+            if (success) {
+                if (inFlight * 2 >= limit) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            } else if (sequence >= decreasedAt) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                decreasedAt = sent.get();
+            }
+            inFlight--;
+            while (inFlight < (int) limit && !queued.isEmpty()) {
+                inFlight++;
+                send.add(queued.poll());
+            }
+        }
+        send.forEach(Runnable::run);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued.size();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("upstream.limiter.limit", this, ConcurrencyLimiter::getLimit).tag("name", name).register(registry);
+        Gauge.builder("upstream.limiter.in-flight", this, ConcurrencyLimiter::getInFlight).tag("name", name).register(registry);
+        Gauge.builder("upstream.limiter.queued", this, ConcurrencyLimiter::getQueued).tag("name", name).register(registry);
+        FunctionCounter.builder("upstream.limiter.rejected", this, ConcurrencyLimiter::getRejected).tag("name", name).register(registry);
+    }
+}
@@ -1,68 +1,164 @@
 package com.rest.webservices.flights.integration;
 
-import com.rest.webservices.flights.integration.response.RouteResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.rest.webservices.flights.integration.response.ScheduleResponse;
+import com.rest.webservices.flights.model.RouteGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
-import java.util.*;
+import java.io.IOException;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
 @Service
 public class RyanairApiService {
 
-    private final String ROUTES_URL = "https://services-api.ryanair.com/locate/3/routes";
-    private final String SCHEDULES_URL = "https://services-api.ryanair.com/timtbl/3/schedules/%s/%s/years/%s/months/%s";
+    private final String ROUTES_PATH = "/locate/3/routes";
+    private final String SCHEDULES_PATH = "/timtbl/3/schedules/%s/%s/years/%s/months/%s";
+    private final String OPERATOR = "RYANAIR";
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Value("${flights.upstream.routes-base-url:https://services-api.ryanair.com}")
+    private String routesBaseUrl = "https://services-api.ryanair.com";
+
+    @Value("${flights.upstream.schedules-base-url:https://services-api.ryanair.com}")
+    private String schedulesBaseUrl = "https://services-api.ryanair.com";
 
     @Autowired
     private RestTemplate restTemplate;
 
-    @Cacheable(value = "routesCache")
-    public List<RouteResponse> getRoutes() {
+    @Autowired
+    private WebClient webClient;
+
+    @Autowired
+    private ConcurrencyLimiter schedulesLimiter;
+
+    @Autowired
+    @Qualifier("schedulesBreaker")
+    private CircuitBreaker schedulesBreaker;
+
+    @Autowired
+    @Qualifier("routesBreaker")
+    private CircuitBreaker routesBreaker;
+
+    /**
+     * Get the graph of the routes operated by Ryanair without connecting airport. An empty graph is returned when
+     * the routes can not be retrieved. The graph is kept by {@link com.rest.webservices.flights.services.RouteService}
+     */
+    public RouteGraph getRoutes() {
         logger.info("getRoutes: ");
-        List<RouteResponse> routes = Collections.EMPTY_LIST;
+        if (!routesBreaker.allowRequest()) {
+            logger.warn("getRoutes: circuit open, not requested");
+            return RouteGraph.EMPTY;
+        }
+        RouteGraph routes = null;
         try {
-            ResponseEntity<RouteResponse[]> response = restTemplate.getForEntity(ROUTES_URL, RouteResponse[].class);
-            if (response.getStatusCode() == HttpStatus.OK) {
-                routes = Arrays.stream(response.getBody()).collect(Collectors.toList());
-            }
+            routes = restTemplate.execute(routesBaseUrl + ROUTES_PATH, HttpMethod.GET, null, this::readRoutes);
+            routesBreaker.onSuccess();
         } catch (Exception e) {
+            routesBreaker.onFailure();
             logger.error(String.format("Something wrong happened retrieving routes: %s", e.getMessage()));
         }
-        return routes;
+        return routes == null ? RouteGraph.EMPTY : routes;
     }
 
-    @Cacheable(value = "scheduleCache")
-    public Optional<ScheduleResponse> getSchedules(String departure, String arrival, Integer year, Integer month) {
-        Optional<ScheduleResponse> schedules = Optional.empty();
-        String url = String.format(SCHEDULES_URL, departure, arrival, year, month);
-        logger.debug("getSchedules: " + url);
+    /**
+     * @return true when the routes requests keep failing and they are not sent for a while
+     */
+    public boolean isRoutesCircuitOpen() {
+        return routesBreaker.isOpen();
+    }
 
-        try {
-            ResponseEntity<ScheduleResponse> response = restTemplate.getForEntity(url, ScheduleResponse.class);
-            if (response.getStatusCode() == HttpStatus.OK) {
-                schedules = Optional.of(response.getBody());
+    /**
+     * @return true when the schedules requests keep failing and they are not sent for a while
+     */
+    public boolean isSchedulesCircuitOpen() {
+        return schedulesBreaker.isOpen();
+    }
+
+    /**
+     * Read the routes feed, a JSON array of routes, with a streaming parser: the routes are added to the graph
+     * as they are read and the fields not needed are skipped, so no object is created per route
+     */
+    private RouteGraph readRoutes(ClientHttpResponse response) throws IOException {
+        if (response.getStatusCode() != HttpStatus.OK) {
+            return RouteGraph.EMPTY;
+        }
+        RouteGraph.Builder routes = new RouteGraph.Builder();
+        try (JsonParser parser = jsonFactory.createParser(response.getBody())) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "routes are not an array");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String airportFrom = null;
+                String airportTo = null;
+                String connectingAirport = null;
+                String operator = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    switch (field) {
+                        case "airportFrom":
+                            airportFrom = parser.getValueAsString();
+                            break;
+                        case "airportTo":
+                            airportTo = parser.getValueAsString();
+                            break;
+                        case "connectingAirport":
+                            connectingAirport = parser.getValueAsString();
+                            break;
+                        case "operator":
+                            operator = parser.getValueAsString();
+                            break;
+                        default:
+                            parser.skipChildren();
+                    }
+                }
+                if (OPERATOR.equals(operator) && connectingAirport == null && airportFrom != null && airportTo != null) {
+                    routes.addRoute(airportFrom, airportTo);
+                }
             }
-        } catch (Exception e) {
-            logger.error(String.format("Something wrong happened retrieving schedules for %s: %s", url, e.getMessage()));
         }
-        return schedules;
+        return routes.build();
     }
 
-    // This can be an option to increase the performance. This is not used
-    @Async
-    @Cacheable(value = "routesAsyncCache")
-    public CompletableFuture<Optional<ScheduleResponse>> getSchedulesAsync(String departure, String arrival, int year, int month) {
-        Optional<ScheduleResponse> response = getSchedules(departure, arrival, year, month);
-        return CompletableFuture.completedFuture(response);
+    /**
+     * Get the schedules of a month without blocking the caller. The request is sent with the WebClient, so no thread
+     * waits for the response. The schedules are not cached here, {@link com.rest.webservices.flights.services.ScheduleFlightsService}
+     * caches them once converted. The requests over the limit of the schedulesLimiter wait for the ones in flight,
+     * and they are not sent while the circuit of the schedules is open
+     *
+     * @return a future completed with the schedules, or empty if the upstream has not schedules for the month (not found).
+     * It completes exceptionally when the schedules can not be retrieved
+     */
+    public CompletableFuture<Optional<ScheduleResponse>> getSchedulesAsync(String departure, String arrival,
+                                                                           Integer year, Integer month) {
+        String url = schedulesBaseUrl + String.format(SCHEDULES_PATH, departure, arrival, year, month);
+        logger.debug("getSchedules: " + url);
+        return schedulesBreaker.call(() -> schedulesLimiter.submit(() -> webClient
+                .get()
+                .uri(url)
+                .retrieve()
+                .bodyToMono(ScheduleResponse.class)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.just(Optional.empty()))
+                .doOnError(e -> logger.error(String.format("Something wrong happened retrieving schedules for %s: %s", url, e.getMessage())))
+                .toFuture()));
     }
 }
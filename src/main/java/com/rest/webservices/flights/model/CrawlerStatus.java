@@ -0,0 +1,76 @@
+package com.rest.webservices.flights.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of the timetables crawler in its current (or last) run
+ */
+public class CrawlerStatus {
+    private boolean running;
+    private LocalDateTime started;
+    private LocalDateTime finished;
+    private int routes;
+    private int routesCovered;
+    private int monthsFresh;
+    private int monthsFetched;
+    private int errors;
+
+    public CrawlerStatus(boolean running, LocalDateTime started, LocalDateTime finished, int routes, int routesCovered,
+                         int monthsFresh, int monthsFetched, int errors) {
+        this.running = running;
+        this.started = started;
+        this.finished = finished;
+        this.routes = routes;
+        this.routesCovered = routesCovered;
+        this.monthsFresh = monthsFresh;
+        this.monthsFetched = monthsFetched;
+        this.errors = errors;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public LocalDateTime getStarted() {
+        return started;
+    }
+
+    public LocalDateTime getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return routes of the graph to crawl
+     */
+    public int getRoutes() {
+        return routes;
+    }
+
+    /**
+     * @return routes whose months have all been requested
+     */
+    public int getRoutesCovered() {
+        return routesCovered;
+    }
+
+    /**
+     * @return months already in the cache, not requested
+     */
+    public int getMonthsFresh() {
+        return monthsFresh;
+    }
+
+    /**
+     * @return months requested to the upstream and cached
+     */
+    public int getMonthsFetched() {
+        return monthsFetched;
+    }
+
+    /**
+     * @return months requested to the upstream that failed
+     */
+    public int getErrors() {
+        return errors;
+    }
+}
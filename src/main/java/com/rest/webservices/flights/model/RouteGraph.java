@@ -0,0 +1,258 @@
+package com.rest.webservices.flights.model;
+
+import java.util.*;
+
+/**
+ * Immutable routes graph compiled from the routes feed.
+ * Airports are interned to dense int ids (in the order they are first seen) and the destinations of each airport
+ * are stored CSR-style: the destinations of airport i are targets[offsets[i]] .. targets[offsets[i + 1] - 1],
+ * in the order the routes were added. A bitset per airport answers "is there a route from i to j" in constant time
+ * and, together with the bitset of origins of each airport, gives the one stop hubs of any pair with one intersection.
+ */
+public class RouteGraph {
+
+    public static final RouteGraph EMPTY = new Builder().build();
+
+    private final String[] airports;
+    private final Map<String, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+    private final BitSet[] destinations;
+    private final BitSet[] origins;
+
+    private RouteGraph(String[] airports, Map<String, Integer> ids, int[] offsets, int[] targets,
+                       BitSet[] destinations, BitSet[] origins) {
+        this.airports = airports;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.destinations = destinations;
+        this.origins = origins;
+    }
+
+    /**
+     * @return number of airports in the graph
+     */
+    public int size() {
+        return airports.length;
+    }
+
+    public boolean isEmpty() {
+        return airports.length == 0;
+    }
+
+    /**
+     * @return number of routes (edges) in the graph
+     */
+    public int getRoutesCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param airport IATA code
+     * @return id of the airport or -1 if the airport is not in the graph
+     */
+    public int getId(String airport) {
+        Integer id = ids.get(airport);
+        return id == null ? -1 : id;
+    }
+
+    public String getAirport(int id) {
+        return airports[id];
+    }
+
+    public boolean containsAirport(String airport) {
+        return ids.containsKey(airport);
+    }
+
+    public boolean hasRoute(int from, int to) {
+        return destinations[from].get(to);
+    }
+
+    public boolean hasRoute(String from, String to) {
+        int fromId = getId(from);
+        int toId = getId(to);
+        return fromId >= 0 && toId >= 0 && hasRoute(fromId, toId);
+    }
+
+    /**
+     * Airports h with a route from -> h and a route h -> to
+     *
+     * @return a new bitset with the ids of the hubs
+     */
+    public BitSet getHubs(int from, int to) {
+        BitSet hubs = (BitSet) destinations[from].clone();
+        hubs.and(origins[to]);
+        hubs.clear(from);
+        hubs.clear(to);
+        return hubs;
+    }
+
+    /**
+     * Minimum number of flights needed to reach every airport from the airport id
+     *
+     * @param id      origin airport
+     * @param maxHops airports further than maxHops flights are not explored
+     * @return distances indexed by airport id, Integer.MAX_VALUE when the airport is not reachable in maxHops flights
+     */
+    public int[] getDistancesFrom(int id, int maxHops) {
+        return getDistances(id, maxHops, destinations);
+    }
+
+    /**
+     * Minimum number of flights needed to reach the airport id from every airport
+     *
+     * @param id      destination airport
+     * @param maxHops airports further than maxHops flights are not explored
+     * @return distances indexed by airport id, Integer.MAX_VALUE when the airport can not reach id in maxHops flights
+     */
+    public int[] getDistancesTo(int id, int maxHops) {
+        return getDistances(id, maxHops, origins);
+    }
+
+    private int[] getDistances(int id, int maxHops, BitSet[] adjacency) {
+        int[] distances = new int[airports.length];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        distances[id] = 0;
+        BitSet frontier = new BitSet(airports.length);
+        frontier.set(id);
+        for (int hops = 1; hops <= maxHops && !frontier.isEmpty(); hops++) {
+            BitSet next = new BitSet(airports.length);
+            for (int airport = frontier.nextSetBit(0); airport >= 0; airport = frontier.nextSetBit(airport + 1)) {
+                next.or(adjacency[airport]);
+            }
+            for (int airport = next.nextSetBit(0); airport >= 0; airport = next.nextSetBit(airport + 1)) {
+                if (distances[airport] == Integer.MAX_VALUE) {
+                    distances[airport] = hops;
+                } else {
+                    next.clear(airport);
+                }
+            }
+            frontier = next;
+        }
+        return distances;
+    }
+
+    /**
+     * Index of the first destination of airport id in {@link #getTarget(int)}
+     */
+    public int getFirstRoute(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * Index after the last destination of airport id in {@link #getTarget(int)}
+     */
+    public int getLastRoute(int id) {
+        return offsets[id + 1];
+    }
+
+    public int getTarget(int route) {
+        return targets[route];
+    }
+
+    /**
+     * @return index of the route from -> to in {@link #getTarget(int)}, -1 if there is no such route
+     */
+    public int getRoute(int from, int to) {
+        if (!hasRoute(from, to)) {
+            return -1;
+        }
+        int route = offsets[from];
+        while (targets[route] != to) {
+            route++;
+        }
+        return route;
+    }
+
+    /**
+     * @param airport IATA code
+     * @return destinations of the airport in the order they were added, empty if the airport is not in the graph
+     */
+    public List<String> getDestinations(String airport) {
+        int id = getId(airport);
+        if (id < 0) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(offsets[id + 1] - offsets[id]);
+        for (int route = offsets[id]; route < offsets[id + 1]; route++) {
+            result.add(airports[targets[route]]);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteGraph{" +
+                "airports=" + airports.length +
+                ", routes=" + targets.length +
+                '}';
+    }
+
+    /**
+     * Collects routes and compiles them into a {@link RouteGraph}. Repeated routes are ignored.
+     */
+    public static class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> airports = new ArrayList<>();
+        private final List<BitSet> added = new ArrayList<>();
+        private int[] edgeFrom = new int[64];
+        private int[] edgeTo = new int[64];
+        private int edges;
+
+        public int addAirport(String airport) {
+            Integer id = ids.get(airport);
+            if (id == null) {
+                id = airports.size();
+                ids.put(airport, id);
+                airports.add(airport);
+                added.add(new BitSet());
+            }
+            return id;
+        }
+
+        public Builder addRoute(String from, String to) {
+            int fromId = addAirport(from);
+            int toId = addAirport(to);
+            if (!added.get(fromId).get(toId)) {
+                added.get(fromId).set(toId);
+                if (edges == edgeFrom.length) {
+                    edgeFrom = Arrays.copyOf(edgeFrom, edges * 2);
+                    edgeTo = Arrays.copyOf(edgeTo, edges * 2);
+                }
+                edgeFrom[edges] = fromId;
+                edgeTo[edges] = toId;
+                edges++;
+            }
+            return this;
+        }
+
+        public RouteGraph build() {
+            int size = airports.size();
+            int[] offsets = new int[size + 1];
+            for (int i = 0; i < edges; i++) {
+                offsets[edgeFrom[i] + 1]++;
+            }
+            for (int i = 0; i < size; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            // stable counting sort keeps the destinations in insertion order
+            int[] next = Arrays.copyOf(offsets, size);
+            int[] targets = new int[edges];
+            for (int i = 0; i < edges; i++) {
+                targets[next[edgeFrom[i]]++] = edgeTo[i];
+            }
+            BitSet[] destinations = new BitSet[size];
+            BitSet[] origins = new BitSet[size];
+            for (int i = 0; i < size; i++) {
+                destinations[i] = (BitSet) added.get(i).clone();
+                origins[i] = new BitSet(size);
+            }
+            for (int i = 0; i < edges; i++) {
+                origins[edgeTo[i]].set(edgeFrom[i]);
+            }
+            return new RouteGraph(airports.toArray(new String[0]), new HashMap<>(ids), offsets, targets,
+                    destinations, origins);
+        }
+    }
+}
@@ -1,51 +1,221 @@
 package com.rest.webservices.flights.model;
 
+import java.nio.IntBuffer;
+import java.time.LocalDateTime;
 import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Flights scheduled in a month from departure to arrival, sorted by departure time.
+ * The flights are stored in columns: departure and arrival as minutes since the epoch and the flight number as
+ * the position of the number in a table of numbers, as the airports are the same for all of them.
+ * The columns can be backed by arrays or by a memory mapped snapshot (see {@link #of}). {@link Flight} objects are only
+ * created for the flights returned by {@link #getFlights(LocalDateTime, LocalDateTime)}.
+ */
 public class Timetable {
-    private String departure;
-    private String arrival;
-    private YearMonth yearMonth;
-    private List<Flight> flights;
+    private final String departure;
+    private final String arrival;
+    private final YearMonth yearMonth;
+    private final String[] numbers;
+    private final IntBuffer numberIds;
+    private final IntBuffer departures;
+    private final IntBuffer arrivals;
 
     public Timetable(String departure, String arrival, YearMonth yearMonth, List<Flight> flights) {
+        this(departure, arrival, yearMonth, new Builder(flights.size()).addAll(flights));
+    }
+
+    private Timetable(String departure, String arrival, YearMonth yearMonth, Builder builder) {
         this.departure = departure;
         this.arrival = arrival;
         this.yearMonth = yearMonth;
-        this.flights = flights;
+        int size = builder.size;
+        // sort by departure the positions of the flights (departure in the high bits), then copy the columns in that order
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) builder.departures[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        Map<String, Integer> ids = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        int[] numberIds = new int[size];
+        int[] departures = new int[size];
+        int[] arrivals = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = (int) order[i];
+            String number = builder.numbers[position];
+            Integer id = ids.get(number);
+            if (id == null) {
+                id = table.size();
+                ids.put(number, id);
+                table.add(number);
+            }
+            numberIds[i] = id;
+            departures[i] = builder.departures[position];
+            arrivals[i] = builder.arrivals[position];
+        }
+        this.numbers = table.toArray(new String[0]);
+        this.numberIds = IntBuffer.wrap(numberIds);
+        this.departures = IntBuffer.wrap(departures);
+        this.arrivals = IntBuffer.wrap(arrivals);
     }
 
-    public String getDeparture() {
-        return departure;
+    private Timetable(String departure, String arrival, YearMonth yearMonth, String[] numbers, IntBuffer numberIds,
+                      IntBuffer departures, IntBuffer arrivals) {
+        this.departure = departure;
+        this.arrival = arrival;
+        this.yearMonth = yearMonth;
+        this.numbers = numbers;
+        this.numberIds = numberIds;
+        this.departures = departures;
+        this.arrivals = arrivals;
     }
 
-    public void setDeparture(String departure) {
-        this.departure = departure;
+    /**
+     * Timetable over existing columns, which are not copied nor read until the flights are requested
+     *
+     * @param numbers    table of flight numbers
+     * @param numberIds  position in numbers of the number of each flight
+     * @param departures departure of each flight in minutes since the epoch, sorted
+     * @param arrivals   arrival of each flight in minutes since the epoch
+     */
+    public static Timetable of(String departure, String arrival, YearMonth yearMonth, String[] numbers,
+                               IntBuffer numberIds, IntBuffer departures, IntBuffer arrivals) {
+        return new Timetable(departure, arrival, yearMonth, numbers, numberIds, departures, arrivals);
     }
 
-    public String getArrival() {
-        return arrival;
+    public String getDeparture() {
+        return departure;
     }
 
-    public void setArrival(String arrival) {
-        this.arrival = arrival;
+    public String getArrival() {
+        return arrival;
     }
 
     public YearMonth getYearMonth() {
         return yearMonth;
     }
 
-    public void setYearMonth(YearMonth yearMonth) {
-        this.yearMonth = yearMonth;
+    /**
+     * @return number of flights
+     */
+    public int size() {
+        return departures.limit();
+    }
+
+    public String getNumber(int i) {
+        return numbers[numberIds.get(i)];
     }
 
+    /**
+     * @return departure of the flight i in minutes since the epoch
+     */
+    public int getDepartureMinutes(int i) {
+        return departures.get(i);
+    }
+
+    /**
+     * @return arrival of the flight i in minutes since the epoch
+     */
+    public int getArrivalMinutes(int i) {
+        return arrivals.get(i);
+    }
+
+    /**
+     * @return all the flights sorted by departure time
+     */
     public List<Flight> getFlights() {
-        return flights;
+        List<Flight> result = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++) {
+            result.add(getFlight(i));
+        }
+        return result;
     }
 
-    public void setFlights(List<Flight> flights) {
-        this.flights = flights;
+    /**
+     * Flights departing not before from and arriving not after to. The first flight is found with a binary search
+     * on the departure time and the search stops at the first flight departing after to
+     *
+     * @return flights sorted by departure time
+     */
+    public List<Flight> getFlights(LocalDateTime from, LocalDateTime to) {
+        long fromSeconds = from.toEpochSecond(ZoneOffset.UTC);
+        long toSeconds = to.toEpochSecond(ZoneOffset.UTC);
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departures.get(middle) * 60L < fromSeconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<Flight> result = new ArrayList<>();
+        for (int i = low; i < size() && departures.get(i) * 60L <= toSeconds; i++) {
+            if (arrivals.get(i) * 60L <= toSeconds) {
+                result.add(getFlight(i));
+            }
+        }
+        return result;
+    }
+
+    private Flight getFlight(int i) {
+        return new Flight(getNumber(i), departure, arrival, toDateTime(departures.get(i)), toDateTime(arrivals.get(i)));
+    }
+
+    private static int toMinutes(LocalDateTime dateTime) {
+        return (int) (dateTime.toEpochSecond(ZoneOffset.UTC) / 60);
     }
-}
 
+    private static LocalDateTime toDateTime(int minutes) {
+        return LocalDateTime.ofEpochSecond(minutes * 60L, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Collects the flights of a timetable without creating {@link Flight} objects
+     */
+    public static class Builder {
+        private String[] numbers;
+        private int[] departures;
+        private int[] arrivals;
+        private int size;
+
+        public Builder() {
+            this(16);
+        }
+
+        private Builder(int capacity) {
+            numbers = new String[Math.max(capacity, 1)];
+            departures = new int[numbers.length];
+            arrivals = new int[numbers.length];
+        }
+
+        public Builder add(String number, LocalDateTime departureDateTime, LocalDateTime arrivalDateTime) {
+            if (size == numbers.length) {
+                numbers = Arrays.copyOf(numbers, size * 2);
+                departures = Arrays.copyOf(departures, size * 2);
+                arrivals = Arrays.copyOf(arrivals, size * 2);
+            }
+            numbers[size] = number == null ? null : number.intern();
+            departures[size] = toMinutes(departureDateTime);
+            arrivals[size] = toMinutes(arrivalDateTime);
+            size++;
+            return this;
+        }
+
+        private Builder addAll(List<Flight> flights) {
+            flights.forEach(flight -> add(flight.getNumber(), flight.getDepartureDateTime(), flight.getArrivalDateTime()));
+            return this;
+        }
+
+        public Timetable build(String departure, String arrival, YearMonth yearMonth) {
+            return new Timetable(departure, arrival, yearMonth, this);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.rest.webservices.flights.rest;
+
+import com.rest.webservices.flights.model.CrawlerStatus;
+import com.rest.webservices.flights.services.CrawlerService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class CrawlerController {
+
+    @Autowired
+    private CrawlerService crawlerService;
+
+    /**
+     * Progress of the timetables crawler: routes covered, months already cached, months fetched and errors
+     */
+    @GetMapping(value = "/crawler", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<CrawlerStatus> status() {
+        return new ResponseEntity<>(crawlerService.getStatus(), HttpStatus.OK);
+    }
+}
@@ -1,41 +1,113 @@
 package com.rest.webservices.flights.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rest.webservices.flights.model.Interconnection;
 import com.rest.webservices.flights.services.InterconnectionService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.Pattern;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @Validated
 public class InterconnectionFlightsController {
 
-    private final int NUM_MAX_STOPS = 1;
+    private final int MAX_STOPS_LIMIT = 3;
     private final String VALIDATION_IATA_CODE_REGEX = "^[A-Za-z]{3}$";
+    private final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private final String STALE_WARNING = "110 - \"Response is Stale\"";
 
     @Autowired
     private InterconnectionService interconnectionService;
 
-    @GetMapping("/interconnections")
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @GetMapping(value = "/interconnections")
     public ResponseEntity<List<Interconnection>> interconnections(
             @RequestParam @Pattern(regexp = VALIDATION_IATA_CODE_REGEX, message="Invalid departure format") String departure,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime departureDateTime,
             @RequestParam @Pattern(regexp = VALIDATION_IATA_CODE_REGEX, message="Invalid arrival format") String arrival,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime arrivalDateTime)
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime arrivalDateTime,
+            @RequestParam(defaultValue = "1") @Min(value = 0, message = "Invalid maxStops")
+            @Max(value = MAX_STOPS_LIMIT, message = "Invalid maxStops") int maxStops,
+            @RequestParam(defaultValue = "false") boolean optimal)
             throws Exception {
 
-        List<Interconnection> interconnectionFlights = interconnectionService.
-                getFlights(departure.toUpperCase(), departureDateTime, arrival.toUpperCase(), arrivalDateTime, NUM_MAX_STOPS);
-        return new ResponseEntity<List<Interconnection>>(interconnectionFlights,HttpStatus.OK);
+        interconnectionService.checkInput(departure.toUpperCase(), departureDateTime, arrival.toUpperCase(), arrivalDateTime, maxStops);
+        List<Interconnection> interconnectionFlights = new ArrayList<>();
+        boolean stale = interconnectionService.searchFlights(departure.toUpperCase(), departureDateTime,
+                arrival.toUpperCase(), arrivalDateTime, maxStops, optimal, interconnectionFlights::add);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (stale) {
+            // built with timetables or routes kept while the upstream could not be reached
+            response.header(HttpHeaders.WARNING, STALE_WARNING);
+        }
+        return response.body(interconnectionFlights);
     }
 
+    /**
+     * Same search than {@link #interconnections} but each interconnection is written as a JSON line as soon as
+     * it is found. The headers are written before the search, so a stale response is marked with a Warning trailer
+     * instead, sent after the last line to the clients accepting trailers
+     */
+    @GetMapping(value = "/interconnections", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamInterconnections(
+            @RequestParam @Pattern(regexp = VALIDATION_IATA_CODE_REGEX, message="Invalid departure format") String departure,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime departureDateTime,
+            @RequestParam @Pattern(regexp = VALIDATION_IATA_CODE_REGEX, message="Invalid arrival format") String arrival,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime arrivalDateTime,
+            @RequestParam(defaultValue = "1") @Min(value = 0, message = "Invalid maxStops")
+            @Max(value = MAX_STOPS_LIMIT, message = "Invalid maxStops") int maxStops,
+            @RequestParam(defaultValue = "false") boolean optimal,
+            HttpServletResponse servletResponse)
+            throws Exception {
+
+        // validated before the response is committed, so invalid inputs are still a bad request
+        interconnectionService.checkInput(departure.toUpperCase(), departureDateTime, arrival.toUpperCase(), arrivalDateTime, maxStops);
+        AtomicBoolean stale = new AtomicBoolean();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        try {
+            servletResponse.setTrailerFields(() -> stale.get() ?
+                    Collections.singletonMap(HttpHeaders.WARNING, STALE_WARNING) : Collections.emptyMap());
+            response.header(HttpHeaders.TRAILER, HttpHeaders.WARNING);
+        } catch (IllegalStateException e) {
+            // HTTP/1.0 has no trailers
+        }
+        StreamingResponseBody body = outputStream -> {
+            try {
+                stale.set(interconnectionService.searchFlights(departure.toUpperCase(), departureDateTime, arrival.toUpperCase(),
+                        arrivalDateTime, maxStops, optimal, interconnection -> {
+                            try {
+                                outputStream.write(objectMapper.writeValueAsBytes(interconnection));
+                                outputStream.write('\n');
+                                outputStream.flush();
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return response.contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
 }
@@ -0,0 +1,199 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Itinerary search based on the Connection Scan Algorithm.
+ * The timetables of every route that can be part of an itinerary are loaded once into a flat array of connections
+ * sorted by departure time. The array is scanned from the latest departure to the earliest one, so when a connection
+ * is scanned all the itineraries that can follow it (departing from its arrival airport after the minimum connection
+ * time) are already known. In optimal mode an itinerary is not kept at an airport when another itinerary from the
+ * same airport departs no earlier, arrives no later and has no more stops, so it is never extended.
+ */
+@Service
+public class ConnectionScanService {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Get all the itineraries from departure to arrival with 1 to numMaxStops stops
+     *
+     * @param routesGraph               all the routes available
+     * @param yearMonths                months where the flights need to be searched
+     * @param departure                 airport of origin
+     * @param departureDate             flights can not departure before this date
+     * @param arrival                   airport of destination
+     * @param arrivalDate               flights can not arrive after this date
+     * @param numMaxStops               max stops between departure and arrival
+     * @param timeBetweenStopsInHours   minimum hours between the arrival of a flight and the departure of the next one
+     * @param optimal                   discard the itineraries dominated by another one
+     * @param lookup                    timetables looked up by the search
+     * @return itineraries ordered by number of stops, route and departure times
+     */
+    public List<List<Flight>> getConnectionsFlights(RouteGraph routesGraph, List<YearMonth> yearMonths,
+                                                    String departure, LocalDateTime departureDate,
+                                                    String arrival, LocalDateTime arrivalDate,
+                                                    int numMaxStops, int timeBetweenStopsInHours, boolean optimal,
+                                                    ScheduleLookup lookup) {
+        int from = routesGraph.getId(departure);
+        int to = routesGraph.getId(arrival);
+        if (from < 0 || to < 0 || numMaxStops < 1) {
+            return Collections.emptyList();
+        }
+        int maxLegs = numMaxStops + 1;
+        int[] distancesFrom = routesGraph.getDistancesFrom(from, maxLegs);
+        int[] distancesTo = routesGraph.getDistancesTo(to, maxLegs);
+        Connection[] connections = loadConnections(routesGraph, yearMonths, from, to, maxLegs, distancesFrom, distancesTo,
+                departureDate, arrivalDate, lookup);
+        logger.info(String.format("getConnectionsFlights: %s to %s scanning %d connections", departure, arrival, connections.length));
+
+        long minConnectionSeconds = timeBetweenStopsInHours * 3600L;
+        // journeysFrom[airport]: itineraries to the arrival starting at airport, latest departure first
+        List<List<Journey>> journeysFrom = new ArrayList<>(routesGraph.size());
+        for (int i = 0; i < routesGraph.size(); i++) {
+            journeysFrom.add(new ArrayList<>());
+        }
+        for (int i = connections.length - 1; i >= 0; i--) {
+            Connection connection = connections[i];
+            List<Journey> journeys = journeysFrom.get(connection.from);
+            if (connection.to == to) {
+                add(journeys, new Journey(connection, null), optimal);
+                continue;
+            }
+            long earliestDeparture = connection.arrival + minConnectionSeconds;
+            for (Journey next : journeysFrom.get(connection.to)) {
+                if (next.connection.departure < earliestDeparture) {
+                    break;
+                }
+                if (next.legs < maxLegs && distancesFrom[connection.from] + next.legs + 1 <= maxLegs
+                        && !next.visits(connection.from)) {
+                    add(journeys, new Journey(connection, next), optimal);
+                }
+            }
+        }
+
+        List<List<Flight>> itineraries = new ArrayList<>();
+        for (Journey journey : journeysFrom.get(from)) {
+            if (journey.legs > 1) {
+                itineraries.add(journey.getFlights());
+            }
+        }
+        itineraries.sort(Itineraries.order(routesGraph));
+        return itineraries;
+    }
+
+    /**
+     * Add the journey to the journeys of its departure airport. As the connections are scanned by departure,
+     * the journeys already there depart no earlier than the new one
+     */
+    private void add(List<Journey> journeys, Journey journey, boolean optimal) {
+        if (optimal) {
+            for (Journey other : journeys) {
+                if (other.arrival <= journey.arrival && other.legs <= journey.legs) {
+                    return;
+                }
+            }
+        }
+        journeys.add(journey);
+    }
+
+    /**
+     * Load the flights of every route (u, v) that can be part of an itinerary with maxLegs flights or less,
+     * sorted by departure time. The timetables of all the routes are requested at the same time
+     */
+    private Connection[] loadConnections(RouteGraph routesGraph, List<YearMonth> yearMonths, int from, int to, int maxLegs,
+                                         int[] distancesFrom, int[] distancesTo,
+                                         LocalDateTime departureDate, LocalDateTime arrivalDate, ScheduleLookup lookup) {
+        List<CompletableFuture<List<Connection>>> routes = new ArrayList<>();
+        for (int u = 0; u < routesGraph.size(); u++) {
+            if (u == to || distancesFrom[u] >= maxLegs) {
+                continue;
+            }
+            for (int route = routesGraph.getFirstRoute(u); route < routesGraph.getLastRoute(u); route++) {
+                int v = routesGraph.getTarget(route);
+                if (v == from || distancesTo[v] == Integer.MAX_VALUE || distancesFrom[u] + 1 + distancesTo[v] > maxLegs) {
+                    continue;
+                }
+                int origin = u;
+                routes.add(lookup
+                        .getScheduledFlightsAsync(routesGraph.getAirport(u), routesGraph.getAirport(v), yearMonths,
+                                departureDate, arrivalDate)
+                        .thenApply(flights -> flights
+                                .stream()
+                                .map(flight -> new Connection(origin, v, flight))
+                                .collect(Collectors.toList())));
+            }
+        }
+        Connection[] sorted = CompletableFuture
+                .allOf(routes.toArray(new CompletableFuture[0]))
+                .thenApply(done -> routes
+                        .stream()
+                        .flatMap(route -> route.join().stream())
+                        .toArray(Connection[]::new))
+                .join();
+        Arrays.sort(sorted, Comparator.comparingLong(c -> c.departure));
+        return sorted;
+    }
+
+    private static class Connection {
+        private final int from;
+        private final int to;
+        private final long departure;
+        private final long arrival;
+        private final Flight flight;
+
+        private Connection(int from, int to, Flight flight) {
+            this.from = from;
+            this.to = to;
+            this.departure = flight.getDepartureDateTime().toEpochSecond(ZoneOffset.UTC);
+            this.arrival = flight.getArrivalDateTime().toEpochSecond(ZoneOffset.UTC);
+            this.flight = flight;
+        }
+    }
+
+    /**
+     * Itinerary to the arrival airport as a linked list of connections. Suffixes are shared between itineraries
+     */
+    private static class Journey {
+        private final Connection connection;
+        private final Journey next;
+        private final int legs;
+        // arrival to the destination
+        private final long arrival;
+
+        private Journey(Connection connection, Journey next) {
+            this.connection = connection;
+            this.next = next;
+            this.legs = next == null ? 1 : next.legs + 1;
+            this.arrival = next == null ? connection.arrival : next.arrival;
+        }
+
+        private boolean visits(int airport) {
+            for (Journey journey = this; journey != null; journey = journey.next) {
+                if (journey.connection.to == airport) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<Flight> getFlights() {
+            List<Flight> flights = new ArrayList<>(legs);
+            for (Journey journey = this; journey != null; journey = journey.next) {
+                flights.add(journey.connection.flight);
+            }
+            return flights;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.integration.RyanairApiService;
+import com.rest.webservices.flights.model.CrawlerStatus;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background job requesting the timetables of the next months of every route of the graph, so the searches find
+ * them in the cache. The months already cached are skipped and the upstream requests are spaced to keep
+ * under a budget of calls per minute. While the circuit of the schedules is open the crawl is paused, its requests
+ * would only be rejected.
+ */
+@Service
+public class CrawlerService {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private ScheduleFlightsService scheduleFlightsService;
+
+    @Autowired
+    private RyanairApiService ryanairApiService;
+
+    @Value("${flights.crawler.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${flights.crawler.months:2}")
+    private int months = 2;
+
+    @Value("${flights.crawler.calls-per-minute:600}")
+    private int callsPerMinute = 600;
+
+    @Value("${flights.crawler.circuit-check-interval:1000}")
+    private long circuitCheckInterval = 1000;
+
+    private volatile boolean running;
+    private volatile LocalDateTime started;
+    private volatile LocalDateTime finished;
+    private volatile int routes;
+    private final AtomicInteger routesCovered = new AtomicInteger();
+    private final AtomicInteger monthsFresh = new AtomicInteger();
+    private final AtomicInteger monthsFetched = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+
+    @Scheduled(fixedDelayString = "${flights.crawler.interval:3600000}", initialDelayString = "${flights.crawler.initial-delay:60000}")
+    public void crawl() {
+        if (!enabled) {
+            return;
+        }
+        RouteGraph routesGraph = routeService.getAllAvailableRoutes();
+        start(routesGraph.getRoutesCount());
+        List<YearMonth> yearMonths = new ArrayList<>(months);
+        for (int i = 0; i < months; i++) {
+            yearMonths.add(YearMonth.now().plusMonths(i));
+        }
+        long pauseNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(callsPerMinute, 1);
+        long nextCall = System.nanoTime();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        try {
+            for (int from = 0; from < routesGraph.size(); from++) {
+                for (int route = routesGraph.getFirstRoute(from); route < routesGraph.getLastRoute(from); route++) {
+                    String departure = routesGraph.getAirport(from);
+                    String arrival = routesGraph.getAirport(routesGraph.getTarget(route));
+                    for (YearMonth yearMonth : yearMonths) {
+                        if (scheduleFlightsService.isCached(departure, arrival, yearMonth)) {
+                            monthsFresh.incrementAndGet();
+                            continue;
+                        }
+                        awaitSchedulesCircuit();
+                        long wait = nextCall - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        nextCall = Math.max(nextCall, System.nanoTime()) + pauseNanos;
+                        requests.add(scheduleFlightsService
+                                .getScheduledFlightsByMonthAsync(departure, arrival, yearMonth)
+                                // upstream errors are returned as empty but not cached
+                                .thenRun(() -> (scheduleFlightsService.isCached(departure, arrival, yearMonth) ?
+                                        monthsFetched : errors).incrementAndGet()));
+                    }
+                    routesCovered.incrementAndGet();
+                }
+            }
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Wait while the circuit of the schedules is open, checking it every circuitCheckInterval (ms). The circuit
+     * stops being open when its open duration is over, then the next request of the crawl is the probe
+     */
+    private void awaitSchedulesCircuit() throws InterruptedException {
+        if (!ryanairApiService.isSchedulesCircuitOpen()) {
+            return;
+        }
+        logger.warn("crawl paused: schedules circuit open");
+        while (ryanairApiService.isSchedulesCircuitOpen()) {
+            TimeUnit.MILLISECONDS.sleep(circuitCheckInterval);
+        }
+        logger.info("crawl resumed");
+    }
+
+    public CrawlerStatus getStatus() {
+        return new CrawlerStatus(running, started, finished, routes, routesCovered.get(), monthsFresh.get(),
+                monthsFetched.get(), errors.get());
+    }
+
+    private void start(int routesCount) {
+        logger.info(String.format("crawl: %d routes, %d months", routesCount, months));
+        routes = routesCount;
+        routesCovered.set(0);
+        monthsFresh.set(0);
+        monthsFetched.set(0);
+        errors.set(0);
+        started = LocalDateTime.now();
+        finished = null;
+        running = true;
+    }
+
+    private void finish() {
+        running = false;
+        finished = LocalDateTime.now();
+        logger.info(String.format("crawl finished: %d routes covered, %d months fresh, %d months fetched, %d errors",
+                routesCovered.get(), monthsFresh.get(), monthsFetched.get(), errors.get()));
+    }
+}
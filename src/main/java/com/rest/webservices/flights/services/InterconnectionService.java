@@ -2,16 +2,21 @@ package com.rest.webservices.flights.services;
 
 import com.rest.webservices.flights.model.Flight;
 import com.rest.webservices.flights.model.Interconnection;
-import com.rest.webservices.flights.model.TreeRoute;
+import com.rest.webservices.flights.model.RouteGraph;
 import com.rest.webservices.flights.exception.InvalidInputException;
 import com.rest.webservices.flights.util.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -30,6 +35,19 @@ public class InterconnectionService {
     @Autowired
     private RouteService routeService;
 
+    @Autowired
+    private ConnectionScanService connectionScanService;
+
+    @Autowired
+    private RoundBasedSearchService roundBasedSearchService;
+
+    @Autowired
+    @Qualifier("searchExecutor")
+    private Executor searchExecutor;
+
+    @Value("${flights.search.engine:TREE}")
+    private SearchEngine searchEngine = SearchEngine.TREE;
+
 
     /**
      * Get all the possible interconnections flights between 2 airports with a max of numMaxStops stops
@@ -44,7 +62,37 @@ public class InterconnectionService {
      */
     public List<Interconnection> getFlights(String departure, LocalDateTime departureDateTime, String arrival,
                                             LocalDateTime arrivalDateTime, int numMaxStops) throws Exception {
+        return getFlights(departure, departureDateTime, arrival, arrivalDateTime, numMaxStops, false);
+    }
 
+    /**
+     * Get the possible interconnections flights between 2 airports with a max of numMaxStops stops
+     *
+     * @param departure         airport of origin
+     * @param departureDateTime all the flights will be no before than this date
+     * @param arrival           airport of destination
+     * @param arrivalDateTime   all the flights will be no after than this date
+     * @param numMaxStops       stops between the 2 airports
+     * @param optimal           only the interconnections not dominated by other (departing earlier, arriving later
+     *                          and with more stops) are returned
+     * @return a list of interconnection flights
+     * @throws InvalidInputException
+     */
+    public List<Interconnection> getFlights(String departure, LocalDateTime departureDateTime, String arrival,
+                                            LocalDateTime arrivalDateTime, int numMaxStops, boolean optimal) throws Exception {
+        checkInput(departure, departureDateTime, arrival, arrivalDateTime, numMaxStops);
+        List<Interconnection> interconnections = new ArrayList<>();
+        searchFlights(departure, departureDateTime, arrival, arrivalDateTime, numMaxStops, optimal, interconnections::add);
+        return interconnections;
+    }
+
+    /**
+     * Validate the parameters of a search
+     *
+     * @throws InvalidInputException if any of them is not valid
+     */
+    public void checkInput(String departure, LocalDateTime departureDateTime, String arrival,
+                           LocalDateTime arrivalDateTime, int numMaxStops) throws InvalidInputException {
         if (!departureDateTime.isBefore(arrivalDateTime)) {
             throw new InvalidInputException("arrivalDateTime date can not be before departureDateTime");
         }
@@ -56,10 +104,43 @@ public class InterconnectionService {
         if (numMaxStops < 0) {
             throw new InvalidInputException("num Stops can not negative");
         }
+    }
 
-        return getInterconnections(routeService.getAllAvailableRoutes(),
-                DateUtils.getMonthsBetween(departureDateTime, arrivalDateTime),
-                departure, departureDateTime, arrival, arrivalDateTime, numMaxStops);
+    /**
+     * Search the interconnections flights between 2 airports and pass each of them to the consumer as soon as
+     * it is found, starting with direct flights. The parameters have to be validated with {@link #checkInput}.
+     * In optimal mode the interconnections are only passed at the end of the search, once the dominated ones are removed.
+     * The engines discard most of them while searching, the direct flights are compared with the rest at the end
+     *
+     * @param departure         airport of origin
+     * @param departureDateTime all the flights will be no before than this date
+     * @param arrival           airport of destination
+     * @param arrivalDateTime   all the flights will be no after than this date
+     * @param numMaxStops       stops between the 2 airports
+     * @param optimal           only the interconnections not dominated by other are returned
+     * @param consumer          receives the interconnections in the order of {@link #getFlights}
+     * @return true if the search used stale timetables or routes, or missed timetables, because the upstream could
+     * not be reached
+     */
+    public boolean searchFlights(String departure, LocalDateTime departureDateTime, String arrival,
+                                 LocalDateTime arrivalDateTime, int numMaxStops, boolean optimal,
+                                 Consumer<Interconnection> consumer) {
+        RouteGraph routesGraph = routeService.getAllAvailableRoutes();
+        boolean staleRoutes = routeService.isStale();
+        ScheduleLookup lookup = new ScheduleLookup(scheduleFlightsService);
+        List<YearMonth> yearMonths = DateUtils.getMonthsBetween(departureDateTime, arrivalDateTime);
+        if (optimal) {
+            List<Interconnection> interconnections = new ArrayList<>();
+            getInterconnections(routesGraph, yearMonths, departure, departureDateTime, arrival, arrivalDateTime,
+                    numMaxStops, true, interconnections::add, lookup);
+            getOptimalInterconnections(interconnections, numMaxStops).forEach(consumer);
+        } else {
+            getInterconnections(routesGraph, yearMonths, departure, departureDateTime, arrival, arrivalDateTime,
+                    numMaxStops, false, consumer, lookup);
+        }
+        logger.debug(String.format("schedule lookups %s to %s: %d performed, %d saved", departure, arrival,
+                lookup.getPerformed(), lookup.getSaved()));
+        return staleRoutes || lookup.isStale();
     }
 
     /**
@@ -73,156 +154,151 @@ public class InterconnectionService {
      * @param arrival airport of destination
      * @param arrivalDate arrival date time
      * @param numMaxStops num max stops
-     * @return List of interconnections
+     * @param optimal engines can discard the interconnections dominated by other
+     * @param interconnections receives the interconnections
+     * @param lookup timetables looked up by the search
      */
-    private List<Interconnection> getInterconnections(Map<String, List<String>> routesGraph, List<YearMonth> yearMonths,
-                                                      String departure, LocalDateTime departureDate, String arrival,
-                                                      LocalDateTime arrivalDate, int numMaxStops) {
-        List<Interconnection> interconnections = new ArrayList<>();
-        searchDirectFlights(interconnections, routesGraph, yearMonths, departure, departureDate, arrival, arrivalDate);
-        searchFlightsWithConnections(interconnections, routesGraph, yearMonths, departure, departureDate, arrival, arrivalDate, numMaxStops);
-        return interconnections;
+    private void getInterconnections(RouteGraph routesGraph, List<YearMonth> yearMonths,
+                                     String departure, LocalDateTime departureDate, String arrival,
+                                     LocalDateTime arrivalDate, int numMaxStops, boolean optimal,
+                                     Consumer<Interconnection> interconnections, ScheduleLookup lookup) {
+        searchDirectFlights(interconnections, routesGraph, yearMonths, departure, departureDate, arrival, arrivalDate,
+                lookup);
+        searchFlightsWithConnections(interconnections, routesGraph, yearMonths, departure, departureDate, arrival,
+                arrivalDate, numMaxStops, optimal, lookup);
+    }
+
+    /**
+     * Remove the interconnections dominated by other, keeping an empty interconnection for the number of stops
+     * without flights
+     */
+    private List<Interconnection> getOptimalInterconnections(List<Interconnection> interconnections, int numMaxStops) {
+        Set<List<Flight>> front = Collections.newSetFromMap(new IdentityHashMap<>());
+        front.addAll(Itineraries.paretoFront(interconnections
+                .stream()
+                .map(Interconnection::getLegs)
+                .filter(legs -> !legs.isEmpty())
+                .collect(Collectors.toList())));
+        List<Interconnection> result = new ArrayList<>();
+        for (int i = 0; i <= numMaxStops; i++) {
+            int numStop = i;
+            addInterconnections(result::add, numStop, interconnections
+                    .stream()
+                    .filter(interconnection -> interconnection.getStops() == numStop && front.contains(interconnection.getLegs()))
+                    .map(Interconnection::getLegs)
+                    .collect(Collectors.toList()));
+        }
+        return result;
     }
 
 
-    private void searchDirectFlights(List<Interconnection> interconnections, Map<String, List<String>> routesGraph,
+    private void searchDirectFlights(Consumer<Interconnection> interconnections, RouteGraph routesGraph,
                                      List<YearMonth> yearMonths, String departure, LocalDateTime departureDate,
-                                     String arrival, LocalDateTime arrivalDate) {
-        Interconnection interconnection = new Interconnection(0, Collections.EMPTY_LIST);
-        if (routesGraph.containsKey(departure) && routesGraph.get(departure).contains(arrival)) {
-            scheduleFlightsService
-                    .getScheduledFlights(departure, arrival, yearMonths, departureDate, arrivalDate)
+                                     String arrival, LocalDateTime arrivalDate, ScheduleLookup lookup) {
+        List<List<Flight>> directFlights = Collections.emptyList();
+        if (routesGraph.hasRoute(departure, arrival)) {
+            directFlights = lookup
+                    .getScheduledFlightsAsync(departure, arrival, yearMonths, departureDate, arrivalDate)
+                    .join()
                     .stream()
-                    .map(flight -> new Interconnection(0, Arrays.asList(flight)))
-                    .forEach(interconnections::add);
-            if (interconnections.isEmpty()) {
-                interconnections.add(interconnection);
-            }
-        } else {
-            interconnections.add(interconnection);
+                    .map(flight -> Arrays.asList(flight))
+                    .collect(Collectors.toList());
         }
+        addInterconnections(interconnections, 0, directFlights);
     }
 
-    private void searchFlightsWithConnections(List<Interconnection> interconnections, Map<String, List<String>> routesGraph,
+    private void searchFlightsWithConnections(Consumer<Interconnection> interconnections, RouteGraph routesGraph,
                                               List<YearMonth> yearMonths, String departure, LocalDateTime departureDate,
-                                              String arrival, LocalDateTime arrivalDate, int numMaxStops) {
-        for (int i = 1; i <= numMaxStops; i++) {
-            int numStop = i;
-            //Get all the routes between departure and arrival airports with i stops
-            List<List<String>> routes = routeService.getRoutesWithConnections(routesGraph, departure, arrival, numStop);
-            List<List<Flight>> allConnectionsFlights = new ArrayList<>();
-            routes
-                    .forEach(
-                            route -> {
-                                List<List<Flight>> connectionsFlights =
-                                        getAllConnectionsFlightsOfARoute(route, yearMonths, departureDate, arrivalDate);
-                                allConnectionsFlights.addAll(connectionsFlights);
-                                connectionsFlights
-                                        .stream()
-                                        .map(flightsConnection -> new Interconnection(numStop, flightsConnection))
-                                        .forEach(interconnections::add);
-                            });
-            if (allConnectionsFlights.isEmpty()) {
-                interconnections.add(new Interconnection(numStop, Collections.EMPTY_LIST));
+                                              String arrival, LocalDateTime arrivalDate, int numMaxStops, boolean optimal,
+                                              ScheduleLookup lookup) {
+        SearchEngine engine = getEngine(numMaxStops, optimal);
+        if (engine != SearchEngine.TREE) {
+            List<List<Flight>> allConnectionsFlights = engine == SearchEngine.CONNECTION_SCAN ?
+                    connectionScanService.getConnectionsFlights(routesGraph, yearMonths,
+                            departure, departureDate, arrival, arrivalDate, numMaxStops, TIME_BETWEEN_STOPS_IN_HOURS, optimal, lookup) :
+                    roundBasedSearchService.getConnectionsFlights(routesGraph, yearMonths,
+                            departure, departureDate, arrival, arrivalDate, numMaxStops, TIME_BETWEEN_STOPS_IN_HOURS, optimal, lookup);
+            for (int i = 1; i <= numMaxStops; i++) {
+                int numStop = i;
+                addInterconnections(interconnections, numStop, allConnectionsFlights
+                        .stream()
+                        .filter(flightsConnection -> flightsConnection.size() == numStop + 1)
+                        .collect(Collectors.toList()));
             }
+            return;
+        }
+        if (numMaxStops < 1) {
+            return;
+        }
+        //Get all the routes between departure and arrival airports with one stop
+        List<List<String>> routes = routeService.getRoutesWithConnections(routesGraph, departure, arrival, 1);
+        // the flights of all the routes are searched at the same time, each route is passed on as soon as
+        // its flights and the ones of the routes before it are found
+        List<CompletableFuture<List<List<Flight>>>> routesFlights = routes
+                .stream()
+                .map(route -> getAllConnectionsFlightsOfARoute(route, yearMonths, departureDate, arrivalDate, lookup))
+                .collect(Collectors.toList());
+        boolean found = false;
+        for (CompletableFuture<List<List<Flight>>> routeFlights : routesFlights) {
+            List<List<Flight>> connectionsFlights = routeFlights.join();
+            connectionsFlights.forEach(flightsConnection -> interconnections.accept(new Interconnection(1, flightsConnection)));
+            found |= !connectionsFlights.isEmpty();
+        }
+        if (!found) {
+            interconnections.accept(new Interconnection(1, Collections.emptyList()));
+        }
+    }
 
+    /**
+     * Engine of a search: the one configured, except for TREE with more than one stop or in optimal mode. TREE
+     * enumerates every route between the airports, which grows with the degree of the hubs to the power of the stops,
+     * and builds every itinerary before the dominated ones can be removed, so it only serves the searches of up to one
+     * stop not in optimal mode and ROUND_BASED, which discards the dominated labels while searching, serves the others
+     */
+    private SearchEngine getEngine(int numMaxStops, boolean optimal) {
+        if (searchEngine == SearchEngine.TREE && (numMaxStops > 1 || optimal)) {
+            logger.debug(String.format("getEngine: %d stops, optimal %b, ROUND_BASED instead of TREE", numMaxStops, optimal));
+            return SearchEngine.ROUND_BASED;
+        }
+        return searchEngine;
+    }
+
+    private void addInterconnections(Consumer<Interconnection> interconnections, int numStop, List<List<Flight>> connectionsFlights) {
+        connectionsFlights
+                .stream()
+                .map(flightsConnection -> new Interconnection(numStop, flightsConnection))
+                .forEach(interconnections);
+        if (connectionsFlights.isEmpty()) {
+            interconnections.accept(new Interconnection(numStop, Collections.emptyList()));
         }
     }
 
 
     /**
-     * Search all the flights available for the route(stops)
+     * Search all the flights available for a route with one stop
      * route: [MAD, BCN, TNF]
      * search all the flights from MAD->BCN and BCN->TNF between the dates departureDate and arrivalDate
+     * Both legs are requested at the same time and joined. The second leg flights departing after departureDate
+     * include the ones each first leg flight connects with
      *
-     * @param route         List of stops (Route)
+     * @param route         departure, stop and arrival
      * @param yearMonths    list of the months to search
      * @param departureDate flights can not departure before this date
      * @param arrivalDate  flights can not arrive after this date
+     * @param lookup        timetables already looked up by the search
      * @return list of flights
      */
-    protected List<List<Flight>> getAllConnectionsFlightsOfARoute(List<String> route, List<YearMonth> yearMonths,
-                                                                  LocalDateTime departureDate, LocalDateTime arrivalDate) {
+    protected CompletableFuture<List<List<Flight>>> getAllConnectionsFlightsOfARoute(List<String> route, List<YearMonth> yearMonths,
+                                                                                 LocalDateTime departureDate, LocalDateTime arrivalDate,
+                                                                                 ScheduleLookup lookup) {
         logger.info("getAllConnectionsFlightsOfARoute:" + route);
-        // route: [DUB, MAD, VLC]
-        //get flights from departure to the first stop in route: DUB -> MAD
-        List<TreeRoute> flightsNode = scheduleFlightsService
-                .getScheduledFlights(route.get(DEPARTURE_STOP_POSITION), route.get(FIRST_STOP_POSITION),
+        CompletableFuture<List<Flight>> secondLegs = lookup.getScheduledFlightsAsync(route.get(FIRST_STOP_POSITION),
+                route.get(SECOND_STOP_POSITION), yearMonths, departureDate, arrivalDate);
+        return lookup
+                .getScheduledFlightsAsync(route.get(DEPARTURE_STOP_POSITION), route.get(FIRST_STOP_POSITION),
                         yearMonths, departureDate, arrivalDate)
-                .stream()
-                .map(flight -> new TreeRoute(flight, null))//flight connections are null for now
-                .collect(Collectors.toList());
-
-        //get flights to the next stops
-        getAllConnectionsFlightsToTheNextStop(flightsNode, route, SECOND_STOP_POSITION, yearMonths, arrivalDate);
-        List<List<Flight>> result = new ArrayList<>();
-        //route.size() - 2 is the number of stops. route has [departure, stop1, stop2 arrival}
-        convertToList(flightsNode, route.size() - 2, 0, new ArrayList<>(), result);
-        return result;
-    }
-
-    /**
-     * Finds flights from each arrival of flightsNode to the next stop specified by route and stopPosition
-     * flightsNode[route1, route1] route1 and route2 are trees whose node root is the flight from departure to the next stop of route
-     *
-     * @param flightsNode  a list of TreeRoute (This structure represent all the routes available from 2 stops)
-     * @param route        stops of the route
-     * @param stopPosition position of the stop in @stops
-     * @param yearMonths   months where the flights need to be searched
-     * @param arrivalDate  flights have not to arrive after this date
-     */
-    private void getAllConnectionsFlightsToTheNextStop(List<TreeRoute> flightsNode, List<String> route, int stopPosition, List<YearMonth> yearMonths, LocalDateTime arrivalDate) {
-        // Search flights between the arrival airport of each of the flights in flightsNode to the next stop route[stopPosition]
-        if (stopPosition <= route.size() - 1) {
-            Iterator<TreeRoute> previousFlightIterator = flightsNode.iterator();
-            while (previousFlightIterator.hasNext()) {
-                // for each flight we search the next connections flights
-                TreeRoute previousFlightNode = previousFlightIterator.next();
-                //list of flights from flightNode(previous flight) to the next stop specified by stops and stopPosition
-                List<Flight> connectionFlights = scheduleFlightsService
-                        .getScheduledFlights(
-                                previousFlightNode.getFlight().getArrivalAirport(),
-                                route.get(stopPosition), //current stop
-                                yearMonths,
-                                previousFlightNode.getFlight().getArrivalDateTime().plusHours(TIME_BETWEEN_STOPS_IN_HOURS), //next flight has to depart no less than 2 hours after arriving the previous flight
-                                arrivalDate);
-                if (connectionFlights.isEmpty()) {
-                    //if there is not next connections, that route needs to be removed
-                    previousFlightIterator.remove();
-                } else {
-                    //otherwise we save those connections and continue searching for more until the destination
-                    previousFlightNode.setConnections(
-                            connectionFlights
-                                    .stream()
-                                    .map(flight -> new TreeRoute(flight, null))
-                                    .collect(Collectors.toList()));
-                    getAllConnectionsFlightsToTheNextStop(previousFlightNode.getConnections(), route, stopPosition + 1, yearMonths, arrivalDate);
-                }
-            }
-        }
-    }
-
-    /**
-     * Convert flights tree into a list
-     *
-     * @param flightsNode flights represented as a tree
-     * @param depth       depth of the tree
-     * @param stop        level we are converting, starts from the node root 0
-     * @param flights     flights of the route
-     * @param result      list of routes
-     */
-    private void convertToList(List<TreeRoute> flightsNode, int depth, int stop, List<Flight> flights, List<List<Flight>> result) {
-        if (flightsNode != null) {
-            for (TreeRoute node : flightsNode) {
-                List<Flight> newRoute = flights.stream().collect(Collectors.toList());
-                newRoute.add(node.getFlight());
-                if (depth == stop) {
-                    result.add(newRoute);
-                } else {
-                    convertToList(node.getConnections(), depth, stop + 1, newRoute, result);
-                }
-            }
-        }
+                .thenCombineAsync(secondLegs, (firstLegs, connections) ->
+                        Itineraries.connect(firstLegs, connections, TIME_BETWEEN_STOPS_IN_HOURS), searchExecutor);
     }
 
 }
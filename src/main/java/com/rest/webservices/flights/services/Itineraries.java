@@ -0,0 +1,135 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Helpers shared by the search engines to work with itineraries (the list of flights from departure to arrival)
+ */
+class Itineraries {
+
+    private Itineraries() {
+    }
+
+    /**
+     * Order of the itineraries returned by the search engines: number of stops, then the airports of the route
+     * (each one by the position of its route among the destinations of the previous airport, as the routes are
+     * enumerated by {@link RouteService#getRoutesWithConnections}) and then the departure of each leg
+     */
+    static Comparator<List<Flight>> order(RouteGraph routesGraph) {
+        return (a, b) -> {
+            if (a.size() != b.size()) {
+                return Integer.compare(a.size(), b.size());
+            }
+            for (int i = 0; i < a.size(); i++) {
+                String airportA = a.get(i).getArrivalAirport();
+                String airportB = b.get(i).getArrivalAirport();
+                if (!airportA.equals(airportB)) {
+                    // the previous airports are the same
+                    int previous = routesGraph.getId(a.get(i).getDepartureAirport());
+                    return Integer.compare(routesGraph.getRoute(previous, routesGraph.getId(airportA)),
+                            routesGraph.getRoute(previous, routesGraph.getId(airportB)));
+                }
+            }
+            for (int i = 0; i < a.size(); i++) {
+                int compare = a.get(i).getDepartureDateTime().compareTo(b.get(i).getDepartureDateTime());
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * Pareto front of the itineraries on (departure, arrival, stops). When two itineraries are equal on the
+     * three criteria only the first one is kept
+     *
+     * @return the itineraries not dominated by other, in the same order they were given
+     */
+    static List<List<Flight>> paretoFront(List<List<Flight>> itineraries) {
+        Integer[] byDeparture = new Integer[itineraries.size()];
+        for (int i = 0; i < byDeparture.length; i++) {
+            byDeparture[i] = i;
+        }
+        // latest departure first, so every itinerary is compared with the ones departing no earlier
+        Arrays.sort(byDeparture, Comparator
+                .comparing((Integer i) -> departure(itineraries.get(i)), Comparator.reverseOrder())
+                .thenComparing(i -> arrival(itineraries.get(i)))
+                .thenComparing(i -> itineraries.get(i).size())
+                .thenComparing(i -> i));
+        int maxLegs = 0;
+        for (List<Flight> itinerary : itineraries) {
+            maxLegs = Math.max(maxLegs, itinerary.size());
+        }
+        // earliestArrival[legs]: earliest arrival of the itineraries already seen with legs flights or less
+        LocalDateTime[] earliestArrival = new LocalDateTime[maxLegs + 1];
+        boolean[] dominated = new boolean[itineraries.size()];
+        for (int i : byDeparture) {
+            List<Flight> itinerary = itineraries.get(i);
+            LocalDateTime arrival = arrival(itinerary);
+            LocalDateTime best = earliestArrival[itinerary.size()];
+            if (best != null && !best.isAfter(arrival)) {
+                dominated[i] = true;
+                continue;
+            }
+            for (int legs = itinerary.size(); legs <= maxLegs; legs++) {
+                if (earliestArrival[legs] == null || arrival.isBefore(earliestArrival[legs])) {
+                    earliestArrival[legs] = arrival;
+                }
+            }
+        }
+        List<List<Flight>> front = new ArrayList<>();
+        for (int i = 0; i < dominated.length; i++) {
+            if (!dominated[i]) {
+                front.add(itineraries.get(i));
+            }
+        }
+        return front;
+    }
+
+    /**
+     * Join the flights of two consecutive legs: every first leg flight with every second leg flight departing
+     * at least hoursBetweenLegs after it arrives. The first leg flights are visited by arrival time, so the first
+     * second leg flight they connect with only moves forward
+     *
+     * @param firstLegs  flights of the first leg
+     * @param secondLegs flights of the second leg, sorted by departure
+     * @return the itineraries of two flights, by first leg in the order given and then by departure of the second leg.
+     * First leg flights without connections are left out
+     */
+    static List<List<Flight>> connect(List<Flight> firstLegs, List<Flight> secondLegs, int hoursBetweenLegs) {
+        Integer[] byArrival = new Integer[firstLegs.size()];
+        for (int i = 0; i < byArrival.length; i++) {
+            byArrival[i] = i;
+        }
+        Arrays.sort(byArrival, Comparator.comparing((Integer i) -> firstLegs.get(i).getArrivalDateTime()));
+        int[] firstConnection = new int[firstLegs.size()];
+        int next = 0;
+        for (int i : byArrival) {
+            LocalDateTime earliest = firstLegs.get(i).getArrivalDateTime().plusHours(hoursBetweenLegs);
+            while (next < secondLegs.size() && secondLegs.get(next).getDepartureDateTime().isBefore(earliest)) {
+                next++;
+            }
+            firstConnection[i] = next;
+        }
+        List<List<Flight>> itineraries = new ArrayList<>();
+        for (int i = 0; i < firstLegs.size(); i++) {
+            for (int j = firstConnection[i]; j < secondLegs.size(); j++) {
+                itineraries.add(Arrays.asList(firstLegs.get(i), secondLegs.get(j)));
+            }
+        }
+        return itineraries;
+    }
+
+    private static LocalDateTime departure(List<Flight> itinerary) {
+        return itinerary.get(0).getDepartureDateTime();
+    }
+
+    private static LocalDateTime arrival(List<Flight> itinerary) {
+        return itinerary.get(itinerary.size() - 1).getArrivalDateTime();
+    }
+}
@@ -0,0 +1,238 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Itinerary search by rounds (RAPTOR-like). Round k takes the partial itineraries with k - 1 flights and extends them
+ * with one more flight, but only from the airports reached in round k - 1, so the work of each round depends on
+ * the airports improved by the previous one instead of on every path between the airports.
+ * The timetable of each route is loaded at most once per search and shared by all the partial itineraries using it.
+ * The timetables needed by a round are requested together before the round starts.
+ * In optimal mode every airport keeps a Pareto set of labels on (departure, arrival, stops) and a partial itinerary
+ * dominated by another one reaching the same airport is discarded before it is extended. Otherwise every partial
+ * itinerary is extended, so every itinerary is returned as with the other engines.
+ */
+@Service
+public class RoundBasedSearchService {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Get all the itineraries from departure to arrival with 1 to numMaxStops stops
+     *
+     * @param routesGraph             all the routes available
+     * @param yearMonths              months where the flights need to be searched
+     * @param departure               airport of origin
+     * @param departureDate           flights can not departure before this date
+     * @param arrival                 airport of destination
+     * @param arrivalDate             flights can not arrive after this date
+     * @param numMaxStops             max stops between departure and arrival
+     * @param timeBetweenStopsInHours minimum hours between the arrival of a flight and the departure of the next one
+     * @param optimal                 discard the itineraries dominated by another one
+     * @param lookup                  timetables looked up by the search
+     * @return itineraries ordered by number of stops, route and departure times
+     */
+    public List<List<Flight>> getConnectionsFlights(RouteGraph routesGraph, List<YearMonth> yearMonths,
+                                                    String departure, LocalDateTime departureDate,
+                                                    String arrival, LocalDateTime arrivalDate,
+                                                    int numMaxStops, int timeBetweenStopsInHours, boolean optimal,
+                                                    ScheduleLookup lookup) {
+        int from = routesGraph.getId(departure);
+        int to = routesGraph.getId(arrival);
+        if (from < 0 || to < 0 || numMaxStops < 1) {
+            return Collections.emptyList();
+        }
+        int maxLegs = numMaxStops + 1;
+        int[] distancesTo = routesGraph.getDistancesTo(to, maxLegs);
+        Map<Integer, List<Flight>> timetables = new HashMap<>();
+
+        // labels[airport]: partial itineraries reaching the airport in the previous round
+        Map<Integer, List<Label>> labels = new HashMap<>();
+        labels.put(from, Collections.singletonList(new Label(from, departureDate)));
+        // bags[airport]: labels reaching the airport not dominated by other, only used in optimal mode
+        Map<Integer, List<Label>> bags = new HashMap<>();
+        List<Label> arrivals = new ArrayList<>();
+        for (int round = 1; round <= maxLegs && !labels.isEmpty(); round++) {
+            Map<Integer, List<Label>> improved = new HashMap<>();
+            loadTimetables(routesGraph, labels.keySet(), from, to, round, maxLegs, distancesTo, yearMonths,
+                    departureDate, arrivalDate, timetables, lookup);
+            for (Map.Entry<Integer, List<Label>> marked : labels.entrySet()) {
+                int u = marked.getKey();
+                for (int route = routesGraph.getFirstRoute(u); route < routesGraph.getLastRoute(u); route++) {
+                    int v = routesGraph.getTarget(route);
+                    if (!isCandidate(from, to, v, round, maxLegs, distancesTo)) {
+                        continue;
+                    }
+                    List<Flight> timetable = timetables.get(route);
+                    for (Label label : marked.getValue()) {
+                        if (label.dominated || label.visits(v)) {
+                            continue;
+                        }
+                        for (int i = firstDepartureFrom(timetable, label.ready); i < timetable.size(); i++) {
+                            Label next = new Label(label, v, timetable.get(i), timeBetweenStopsInHours);
+                            if (optimal && !addToBag(bags.computeIfAbsent(v, airport -> new ArrayList<>()), next)) {
+                                continue;
+                            }
+                            if (v == to) {
+                                arrivals.add(next);
+                            } else {
+                                improved.computeIfAbsent(v, airport -> new ArrayList<>()).add(next);
+                            }
+                        }
+                    }
+                }
+            }
+            logger.debug(String.format("getConnectionsFlights: round %d improved %d airports", round, improved.size()));
+            labels = improved;
+        }
+        logger.info(String.format("getConnectionsFlights: %s to %s loaded %d timetables", departure, arrival, timetables.size()));
+        List<List<Flight>> itineraries = new ArrayList<>(arrivals.size());
+        for (Label label : arrivals) {
+            if (!label.dominated) {
+                itineraries.add(label.getFlights());
+            }
+        }
+        itineraries.sort(Itineraries.order(routesGraph));
+        return itineraries;
+    }
+
+    /**
+     * Add the label to the Pareto set of its airport. The labels of the set dominated by the new one are flagged so
+     * they are not extended anymore
+     *
+     * @return false if the label is dominated by one of the set
+     */
+    private boolean addToBag(List<Label> bag, Label label) {
+        for (Label other : bag) {
+            if (other.dominates(label)) {
+                return false;
+            }
+        }
+        Iterator<Label> iterator = bag.iterator();
+        while (iterator.hasNext()) {
+            Label other = iterator.next();
+            if (label.dominates(other)) {
+                other.dominated = true;
+                iterator.remove();
+            }
+        }
+        bag.add(label);
+        return true;
+    }
+
+    /**
+     * Route (u, v) can take a partial itinerary at u in this round to the arrival in maxLegs flights or less.
+     * Direct flights are not itineraries with connections
+     */
+    private boolean isCandidate(int from, int to, int v, int round, int maxLegs, int[] distancesTo) {
+        return v != from && !(v == to && round == 1)
+                && distancesTo[v] != Integer.MAX_VALUE && round + distancesTo[v] <= maxLegs;
+    }
+
+    /**
+     * Load the timetables of the candidate routes leaving the marked airports that are not loaded
+     * yet. All of them are requested at the same time and the round only starts when every one has been received
+     */
+    private void loadTimetables(RouteGraph routesGraph, Set<Integer> marked, int from, int to, int round, int maxLegs,
+                                int[] distancesTo, List<YearMonth> yearMonths, LocalDateTime departureDate,
+                                LocalDateTime arrivalDate, Map<Integer, List<Flight>> timetables,
+                                ScheduleLookup lookup) {
+        Map<Integer, CompletableFuture<List<Flight>>> requested = new HashMap<>();
+        for (int u : marked) {
+            for (int route = routesGraph.getFirstRoute(u); route < routesGraph.getLastRoute(u); route++) {
+                int v = routesGraph.getTarget(route);
+                if (isCandidate(from, to, v, round, maxLegs, distancesTo) && !timetables.containsKey(route)) {
+                    requested.put(route, lookup
+                            .getScheduledFlightsAsync(routesGraph.getAirport(u), routesGraph.getAirport(v), yearMonths,
+                                    departureDate, arrivalDate));
+                }
+            }
+        }
+        CompletableFuture.allOf(requested.values().toArray(new CompletableFuture[0])).join();
+        requested.forEach((route, timetable) -> timetables.put(route, timetable.join()));
+    }
+
+    /**
+     * @return index of the first flight of the timetable departing not before ready
+     */
+    private int firstDepartureFrom(List<Flight> timetable, LocalDateTime ready) {
+        int low = 0;
+        int high = timetable.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timetable.get(middle).getDepartureDateTime().isBefore(ready)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Partial itinerary reaching an airport. Prefixes are shared between labels
+     */
+    private static class Label {
+        private final Label previous;
+        private final int airport;
+        private final Flight flight;
+        // departure of the first flight
+        private final LocalDateTime departure;
+        // next flight can not depart before this date
+        private final LocalDateTime ready;
+        private final int legs;
+        private boolean dominated;
+
+        private Label(int airport, LocalDateTime ready) {
+            this.previous = null;
+            this.airport = airport;
+            this.flight = null;
+            this.departure = null;
+            this.ready = ready;
+            this.legs = 0;
+        }
+
+        private Label(Label previous, int airport, Flight flight, int timeBetweenStopsInHours) {
+            this.previous = previous;
+            this.airport = airport;
+            this.flight = flight;
+            this.departure = previous.flight == null ? flight.getDepartureDateTime() : previous.departure;
+            this.ready = flight.getArrivalDateTime().plusHours(timeBetweenStopsInHours);
+            this.legs = previous.legs + 1;
+        }
+
+        /**
+         * departs no earlier, arrives no later and has no more flights than the other label
+         */
+        private boolean dominates(Label other) {
+            return !departure.isBefore(other.departure) && !flight.getArrivalDateTime().isAfter(other.flight.getArrivalDateTime())
+                    && legs <= other.legs;
+        }
+
+        private boolean visits(int airport) {
+            for (Label label = this; label != null; label = label.previous) {
+                if (label.airport == airport) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private List<Flight> getFlights() {
+            LinkedList<Flight> flights = new LinkedList<>();
+            for (Label label = this; label.flight != null; label = label.previous) {
+                flights.addFirst(label.flight);
+            }
+            return new ArrayList<>(flights);
+        }
+    }
+}
@@ -1,73 +1,147 @@
 package com.rest.webservices.flights.services;
 
 import com.rest.webservices.flights.integration.RyanairApiService;
+import com.rest.webservices.flights.model.RouteGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Routes graph of the airline. The graph is an immutable snapshot: it is built from the routes feed once and replaced
+ * as a whole by {@link #refresh()}, so a search keeps using the graph it started with and readers never wait for
+ * a graph being built.
+ */
 @Service
 public class RouteService {
 
-    private final String OPERATOR = "RYANAIR";
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     private RyanairApiService ryanairApiService;
 
-    public Map<String, List<String>> getAllAvailableRoutes() {
-        Map<String, List<String>> graph = new HashMap<>();
-        ryanairApiService.getRoutes()
-                .stream()
-                .filter(r -> r.getOperator().equals(OPERATOR) && r.getConnectingAirport() == null)
-                .forEach(route -> {
-                    graph.put(route.getAirportFrom(), graph.getOrDefault(route.getAirportFrom(), new ArrayList<>()));
-                    graph.put(route.getAirportTo(), graph.getOrDefault(route.getAirportTo(), new ArrayList<>()));
-                    if (!graph.get(route.getAirportFrom()).contains(route.getAirportTo())) {
-                        graph.get(route.getAirportFrom()).add(route.getAirportTo());
-                    }
-                });
+    private final AtomicReference<RouteGraph> routeGraph = new AtomicReference<>(RouteGraph.EMPTY);
+    // the last refresh failed, the graph may be out of date
+    private volatile boolean stale;
+
+    /**
+     * @return the current routes graph. Only until there is a graph, the routes are requested (once for all
+     * the concurrent callers)
+     */
+    public RouteGraph getAllAvailableRoutes() {
+        RouteGraph graph = routeGraph.get();
+        if (graph.isEmpty()) {
+            synchronized (this) {
+                graph = routeGraph.get();
+                if (graph.isEmpty()) {
+                    graph = ryanairApiService.getRoutes();
+                    routeGraph.compareAndSet(RouteGraph.EMPTY, graph);
+                    logger.info("routes graph: " + graph);
+                }
+            }
+        }
         return graph;
     }
 
+    /**
+     * @return the current routes graph, empty until the routes are retrieved or restored. The routes are not requested
+     */
+    public RouteGraph getCurrentRoutes() {
+        return routeGraph.get();
+    }
+
+    /**
+     * Use the graph, restored from a snapshot, until the routes are retrieved. Ignored if there is a graph already
+     */
+    public void restore(RouteGraph graph) {
+        if (!graph.isEmpty() && routeGraph.compareAndSet(RouteGraph.EMPTY, graph)) {
+            logger.info("routes graph restored: " + graph);
+        }
+    }
+
+    /**
+     * Request the routes again and swap the graph once the new one is built. The current graph is kept if the
+     * routes can not be retrieved
+     */
+    @Scheduled(fixedDelayString = "${flights.routes.refresh-interval:3600000}", initialDelayString = "${flights.routes.refresh-interval:3600000}")
+    public void refresh() {
+        RouteGraph graph = ryanairApiService.getRoutes();
+        if (graph.isEmpty()) {
+            logger.warn("refresh: no routes, keeping the current graph");
+            stale = true;
+            return;
+        }
+        routeGraph.set(graph);
+        stale = false;
+        logger.info("routes graph: " + graph);
+    }
+
+    /**
+     * @return true if the current graph has been kept because the routes could not be refreshed
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
     /**
      * Get all the routes between from and to with @totalStops
      * @param graph routes available
      * @param from  departure
      * @param to  destination
      * @param totalStops number of stops between from and to
-     * @return a list of routes. Each route is a list of stops
+     * @return a list of routes, in the order of the destinations of each stop. Each route is a list of stops
      */
-    public List<List<String>> getRoutesWithConnections(Map<String, List<String>> graph, String from, String to, int totalStops) {
+    public List<List<String>> getRoutesWithConnections(RouteGraph graph, String from, String to, int totalStops) {
         logger.info(String.format("getRoutesWithConnections: %s to %s", from, to));
         List<List<String>> routes = new ArrayList<>();
-        getRoutes(graph, from, to, totalStops, 0, new ArrayList<>(), new ArrayList<>(), routes);
+        int fromId = graph.getId(from);
+        int toId = graph.getId(to);
+        if (fromId >= 0 && toId >= 0 && totalStops == 1) {
+            // one stop routes come straight from the hubs index, in the order of the destinations of from
+            BitSet hubs = graph.getHubs(fromId, toId);
+            for (int route = graph.getFirstRoute(fromId); route < graph.getLastRoute(fromId); route++) {
+                int hub = graph.getTarget(route);
+                if (hubs.get(hub)) {
+                    routes.add(Arrays.asList(from, graph.getAirport(hub), to));
+                }
+            }
+        } else if (fromId >= 0 && toId >= 0) {
+            int[] stops = new int[totalStops + 2];
+            boolean[] visitedStops = new boolean[graph.size()];
+            visitedStops[toId] = true;
+            getRoutes(graph, fromId, toId, totalStops, 0, visitedStops, stops, routes);
+        }
         return routes;
     }
 
-    private void getRoutes(Map<String, List<String>> graph, String from, String to,
-                           int totalStops, int stop, List<String> visitedStops, List<String> stops, List<List<String>> routes) {
+    private void getRoutes(RouteGraph graph, int from, int to,
+                           int totalStops, int stop, boolean[] visitedStops, int[] stops, List<List<String>> routes) {
+        if (visitedStops[from]) {
+            return;
+        }
+        stops[stop] = from;
         if (totalStops == stop) {
-            if (graph.containsKey(from) && graph.get(from).contains(to)) {
-                stops.add(from);
-                stops.add(to);
-                routes.add(stops);
+            if (graph.hasRoute(from, to)) {
+                stops[stop + 1] = to;
+                List<String> route = new ArrayList<>(stops.length);
+                for (int airport : stops) {
+                    route.add(graph.getAirport(airport));
+                }
+                routes.add(route);
             }
         } else {
-            if (graph.containsKey(from) && !visitedStops.contains(from)) {
-                stops.add(from);
-                visitedStops.add(from);
-                stop++;
-                for (String stopInter : graph.get(from)) {
-                    getRoutes(graph, stopInter, to, totalStops, stop, visitedStops, stops.stream().collect(Collectors.toList()), routes);
-                }
+            visitedStops[from] = true;
+            for (int route = graph.getFirstRoute(from); route < graph.getLastRoute(from); route++) {
+                getRoutes(graph, graph.getTarget(route), to, totalStops, stop + 1, visitedStops, stops, routes);
             }
+            visitedStops[from] = false;
         }
     }
 }
@@ -2,10 +2,17 @@ package com.rest.webservices.flights.services;
 
 import com.rest.webservices.flights.model.Timetable;
 import com.rest.webservices.flights.integration.RyanairApiService;
+import com.rest.webservices.flights.integration.response.ScheduleResponse;
 import com.rest.webservices.flights.model.Flight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
@@ -13,71 +20,214 @@ import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 @Service
 public class ScheduleFlightsService {
 
+    private final String SCHEDULE_CACHE = "scheduleCache";
+    private final String NO_SCHEDULE_CACHE = "noScheduleCache";
+    private final String STALE_SCHEDULE_CACHE = "staleScheduleCache";
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     private RyanairApiService ryanairApiService;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    @Qualifier("upstreamExecutor")
+    private Executor upstreamExecutor;
+
+    private final Counter staleServed = Metrics.counter("flights.schedule.stale");
+
+    private final Counter unavailable = Metrics.counter("flights.schedule.unavailable");
+
+    // upstream requests not answered yet, by cache key
+    private final ConcurrentMap<SimpleKey, TimetableRequest> timetablesInFlight = new ConcurrentHashMap<>();
+
     /**
-     *  Return all the flights scheduled in a month from departure to arrival
+     *  Return all the flights scheduled in a month from departure to arrival, without blocking the caller.
+     *  The timetables are cached once converted in scheduleCache. When the upstream has not schedules for the month
+     *  the empty result is cached in noScheduleCache, which has its own expiration. Upstream errors are not cached,
+     *  so the month is requested again by the next call.
+     *  Concurrent calls for the same month that miss the cache share the same upstream request.
+     *  The response is converted in the upstreamExecutor, as well as what is chained to the returned future.
+     *  <p>
+     *  The timetables are also kept in staleScheduleCache, which expires much later. When the upstream fails the
+     *  last timetable known for the month is returned instead of empty. While the circuit of the upstream is open
+     *  the month is not requested, the last timetable known (or empty) is returned straight away
      * @param departure origin airport
      * @param arrival destination airport
      * @param yearMonth month to seacrh flights
-     * @return a timetable of all the flights scheduled in that month
+     * @return a future completed with the timetable of all the flights scheduled in that month
+     */
+    public CompletableFuture<Optional<Timetable>> getScheduledFlightsByMonthAsync(String departure, String arrival,
+                                                                                 YearMonth yearMonth){
+        return getScheduledFlightsByMonthAsync(departure, arrival, yearMonth, () -> {});
+    }
+
+    /**
+     *  Same as {@link #getScheduledFlightsByMonthAsync(String, String, YearMonth)}
+     * @param onStale run once before the returned future is completed with a stale timetable, or with empty because
+     *                the upstream could not be reached
      */
-    public Optional<Timetable> getScheduledFlightsByMonth(String departure, String arrival, YearMonth yearMonth){
-        return ryanairApiService
-                .getSchedules(departure, arrival, yearMonth.getYear(), yearMonth.getMonthValue())
-                .map(
-                        schedules -> schedules
-                                .getDays()
-                                .parallelStream()
-                                .flatMap(
-                                        day -> {
-                                            LocalDate date = LocalDate
-                                                    .of(yearMonth.getYear(), yearMonth.getMonthValue(), day.getDay());
-                                            return day
-                                                    .getFlights()
-                                                    .stream()
-                                                    .map(f ->
-                                                            new Flight(
-                                                                    f.getNumber(), departure, arrival,
-                                                                    LocalDateTime.of(date, f.getDepartureTime()),
-                                                                    f.getDepartureTime().isBefore(f.getArrivalTime()) ?
-                                                                            LocalDateTime.of(date, f.getArrivalTime()) :
-                                                                            LocalDateTime.of(date.plusDays(1), f.getArrivalTime())
-                                                            )
-                                                    );
-                                        }
-                                )
-                                .collect(Collectors.toList()))
-                .map(flights -> new Timetable(departure, arrival, yearMonth, flights));
+    public CompletableFuture<Optional<Timetable>> getScheduledFlightsByMonthAsync(String departure, String arrival,
+                                                                                 YearMonth yearMonth, Runnable onStale){
+        Cache cache = cacheManager.getCache(SCHEDULE_CACHE);
+        Cache noScheduleCache = cacheManager.getCache(NO_SCHEDULE_CACHE);
+        Cache staleCache = cacheManager.getCache(STALE_SCHEDULE_CACHE);
+        SimpleKey key = new SimpleKey(departure, arrival, yearMonth);
+        Optional<Timetable> cached = getCached(cache, noScheduleCache, key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        Cache.ValueWrapper stale = staleCache == null ? null : staleCache.get(key);
+        if (ryanairApiService.isSchedulesCircuitOpen()) {
+            // the breaker would reject the request
+            return CompletableFuture.completedFuture(serveFailed(stale == null ? Optional.empty() : toTimetable(stale), onStale));
+        }
+        TimetableRequest timetableRequest = new TimetableRequest();
+        CompletableFuture<Optional<Timetable>> timetable = timetableRequest.timetable;
+        TimetableRequest inFlight = timetablesInFlight.putIfAbsent(key, timetableRequest);
+        if (inFlight != null) {
+            logger.debug("getScheduledFlightsByMonth: waiting for the request in flight for " + key);
+            return inFlight.timetable.thenApply(result -> inFlight.failed ? serveFailed(result, onStale) : result);
+        }
+        // the previous request for the key may have finished between the cache lookup and now
+        cached = getCached(cache, noScheduleCache, key);
+        if (cached != null) {
+            timetablesInFlight.remove(key, timetableRequest);
+            timetable.complete(cached);
+            return timetable;
+        }
+        CompletableFuture<Optional<ScheduleResponse>> request;
+        try {
+            request = ryanairApiService.getSchedulesAsync(departure, arrival, yearMonth.getYear(), yearMonth.getMonthValue());
+        } catch (RuntimeException e) {
+            // handled as any upstream error, so the request in flight is completed and removed
+            request = new CompletableFuture<>();
+            request.completeExceptionally(e);
+        }
+        request
+                .whenCompleteAsync((schedules, e) -> {
+                    Optional<Timetable> result = Optional.empty();
+                    try {
+                        if (e == null) {
+                            result = schedules.map(response -> toTimetable(departure, arrival, yearMonth, response));
+                            // cached before leaving the in flight requests, so later calls always find one of them
+                            Cache target = result.isPresent() ? cache : noScheduleCache;
+                            if (target != null) {
+                                target.put(key, result);
+                            }
+                            if (result.isPresent() && staleCache != null) {
+                                staleCache.put(key, result);
+                            }
+                        } else {
+                            // set before completing, so the callers waiting for the request see it
+                            timetableRequest.failed = true;
+                            result = serveFailed(stale == null ? Optional.empty() : toTimetable(stale), onStale);
+                        }
+                    } finally {
+                        timetablesInFlight.remove(key, timetableRequest);
+                        timetable.complete(result);
+                    }
+                }, upstreamExecutor);
+        return timetable;
     }
 
     /**
-     *  Get all the scheduled flights from departure to arrival between from and to dates
+     * @param timetable last timetable known for a month that could not be requested, empty if there is none
+     */
+    private Optional<Timetable> serveFailed(Optional<Timetable> timetable, Runnable onStale) {
+        (timetable.isPresent() ? staleServed : unavailable).increment();
+        onStale.run();
+        return timetable;
+    }
+
+    /**
+     * @return true if the timetable of the month, or the lack of it, is cached
+     */
+    public boolean isCached(String departure, String arrival, YearMonth yearMonth) {
+        return getCached(cacheManager.getCache(SCHEDULE_CACHE), cacheManager.getCache(NO_SCHEDULE_CACHE),
+                new SimpleKey(departure, arrival, yearMonth)) != null;
+    }
+
+    private Timetable toTimetable(String departure, String arrival, YearMonth yearMonth, ScheduleResponse schedules) {
+        Timetable.Builder timetable = new Timetable.Builder();
+        schedules.getDays().forEach(day -> {
+            LocalDate date = LocalDate.of(yearMonth.getYear(), yearMonth.getMonthValue(), day.getDay());
+            day.getFlights().forEach(f -> timetable.add(
+                    f.getNumber(),
+                    LocalDateTime.of(date, f.getDepartureTime()),
+                    f.getDepartureTime().isBefore(f.getArrivalTime()) ?
+                            LocalDateTime.of(date, f.getArrivalTime()) :
+                            LocalDateTime.of(date.plusDays(1), f.getArrivalTime())));
+        });
+        return timetable.build(departure, arrival, yearMonth);
+    }
+
+    private Optional<Timetable> getCached(Cache cache, Cache noScheduleCache, SimpleKey key) {
+        Cache.ValueWrapper cached = cache == null ? null : cache.get(key);
+        if (cached == null && noScheduleCache != null) {
+            cached = noScheduleCache.get(key);
+        }
+        return cached == null ? null : toTimetable(cached);
+    }
+
+    /**
+     * @return the timetable held by a value of the schedule caches
+     */
+    private static Optional<Timetable> toTimetable(Cache.ValueWrapper cached) {
+        return ((Optional<?>) cached.get()).map(Timetable.class::cast);
+    }
+
+    /**
+     *  Get all the scheduled flights from departure to arrival between from and to dates, without blocking the caller.
+     *  The months are requested at the same time
      * @param departure origin airport
      * @param arrival destination airport
      * @param months months between from and to dates
      * @param from departure date
      * @param to arrival date
-     * @return list of flights
+     * @return a future completed with the list of flights, sorted by departure
      */
-    public List<Flight> getScheduledFlights(String departure, String arrival,
-                                            List<YearMonth> months, LocalDateTime from, LocalDateTime to) {
+    public CompletableFuture<List<Flight>> getScheduledFlightsAsync(String departure, String arrival,
+                                                                    List<YearMonth> months, LocalDateTime from, LocalDateTime to) {
         logger.debug("getScheduledFlights: " + departure + " -> " + arrival + " from " + from + " to " + to);
-        return months
-                .parallelStream()
-                .map(month -> getScheduledFlightsByMonth(departure, arrival, month))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .flatMap(t -> t.getFlights().stream())
-                .filter(f -> !f.getDepartureDateTime().isBefore(from) && !f.getArrivalDateTime().isAfter(to))
-                .collect(Collectors.toList());
+        return getFlights(months
+                .stream()
+                .map(month -> getScheduledFlightsByMonthAsync(departure, arrival, month))
+                .collect(Collectors.toList()), from, to);
+    }
+
+    /**
+     * @return the flights between from and to of the timetables, once all of them are retrieved
+     */
+    static CompletableFuture<List<Flight>> getFlights(List<CompletableFuture<Optional<Timetable>>> timetables,
+                                                      LocalDateTime from, LocalDateTime to) {
+        return CompletableFuture
+                .allOf(timetables.toArray(new CompletableFuture[0]))
+                .thenApply(done -> timetables
+                        .stream()
+                        .map(CompletableFuture::join)
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .flatMap(t -> t.getFlights(from, to).stream())
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Upstream request of a timetable, shared by the concurrent calls for the same month
+     */
+    private static class TimetableRequest {
+        private final CompletableFuture<Optional<Timetable>> timetable = new CompletableFuture<>();
+        // the request failed and the timetable is a stale one, or empty
+        private volatile boolean failed;
     }
 }
@@ -0,0 +1,98 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.Timetable;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Timetables looked up during one search. Each month of a pair of airports is requested to
+ * {@link ScheduleFlightsService} only once, the rounds or branches of the search asking for it again reuse the same
+ * timetable. The lookups are counted in the flights.schedule.lookups metric, tagged with result=performed|saved, and
+ * whether any of them was served with a stale timetable, or without one as the upstream could not be reached, is
+ * recorded
+ */
+public class ScheduleLookup {
+
+    private static final Counter PERFORMED = Metrics.counter("flights.schedule.lookups", "result", "performed");
+    private static final Counter SAVED = Metrics.counter("flights.schedule.lookups", "result", "saved");
+
+    private final ScheduleFlightsService scheduleFlightsService;
+    private final ConcurrentMap<SimpleKey, CompletableFuture<Optional<Timetable>>> timetables = new ConcurrentHashMap<>();
+    private final AtomicInteger performed = new AtomicInteger();
+    private final AtomicInteger saved = new AtomicInteger();
+    private volatile boolean stale;
+
+    public ScheduleLookup(ScheduleFlightsService scheduleFlightsService) {
+        this.scheduleFlightsService = scheduleFlightsService;
+    }
+
+    /**
+     * Same as {@link ScheduleFlightsService#getScheduledFlightsByMonthAsync}, only requested the first time
+     */
+    public CompletableFuture<Optional<Timetable>> getScheduledFlightsByMonthAsync(String departure, String arrival,
+                                                                                 YearMonth yearMonth) {
+        boolean[] requested = new boolean[1];
+        CompletableFuture<Optional<Timetable>> timetable = timetables.computeIfAbsent(
+                new SimpleKey(departure, arrival, yearMonth), key -> {
+                    requested[0] = true;
+                    return scheduleFlightsService.getScheduledFlightsByMonthAsync(departure, arrival, yearMonth,
+                            this::markStale);
+                });
+        if (requested[0]) {
+            performed.incrementAndGet();
+            PERFORMED.increment();
+        } else {
+            saved.incrementAndGet();
+            SAVED.increment();
+        }
+        return timetable;
+    }
+
+    /**
+     * Same as {@link ScheduleFlightsService#getScheduledFlightsAsync}, each month only requested the first time
+     */
+    public CompletableFuture<List<Flight>> getScheduledFlightsAsync(String departure, String arrival,
+                                                                    List<YearMonth> months, LocalDateTime from, LocalDateTime to) {
+        return ScheduleFlightsService.getFlights(months
+                .stream()
+                .map(month -> getScheduledFlightsByMonthAsync(departure, arrival, month))
+                .collect(Collectors.toList()), from, to);
+    }
+
+    private void markStale() {
+        stale = true;
+    }
+
+    /**
+     * @return months requested to {@link ScheduleFlightsService}
+     */
+    public int getPerformed() {
+        return performed.get();
+    }
+
+    /**
+     * @return months found in this lookup, not requested again
+     */
+    public int getSaved() {
+        return saved.get();
+    }
+
+    /**
+     * @return true if any of the timetables looked up was a stale one, or missing because of the upstream
+     */
+    public boolean isStale() {
+        return stale;
+    }
+}
@@ -0,0 +1,21 @@
+package com.rest.webservices.flights.services;
+
+/**
+ * Algorithms available to search the flights with connections. Selected with the property flights.search.engine
+ */
+public enum SearchEngine {
+    /**
+     * The legs of each route through a hub joined ({@link InterconnectionService}). Only up to one stop and not in
+     * optimal mode
+     */
+    TREE,
+    /**
+     * Connection Scan over the flights of all the routes at once ({@link ConnectionScanService})
+     */
+    CONNECTION_SCAN,
+    /**
+     * Search by rounds, one flight more per round ({@link RoundBasedSearchService}).
+     * Also serves the searches of more than one stop or in optimal mode when TREE is configured
+     */
+    ROUND_BASED
+}
@@ -0,0 +1,319 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.RouteGraph;
+import com.rest.webservices.flights.model.Timetable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the routes graph and the cached timetables in a binary file, so a restarted instance can serve from it
+ * instead of starting with empty caches. The snapshot is written periodically and loaded at startup with a memory
+ * mapping: only the airports, flight numbers and timetable headers are read, the flights columns are used
+ * straight from the mapped file by {@link Timetable}.
+ * The timetables of a snapshot created within the expiration of scheduleCache are loaded into it, so they are served
+ * straight away (they expire a whole expiration after the load). The older ones are only loaded into
+ * staleScheduleCache: they are served when the upstream fails, and their months are requested again in background.
+ * <p>
+ * Format (big endian), version 1:
+ * <pre>
+ * int magic, int version, long created (epoch millis)
+ * int airports, airports as strings
+ * int routes, routes as (int from, int to) positions in the airports
+ * int numbers, flight numbers as strings
+ * int timetables, each of them as
+ *     int departure, int arrival (positions in the airports), int year, int month, int flights,
+ *     int[flights] departures, int[flights] arrivals (minutes since the epoch), int[flights] numbers (positions in the numbers)
+ * </pre>
+ * Strings are written as an unsigned short length followed by the UTF-8 bytes.
+ */
+@Service
+public class SnapshotService {
+
+    private final int MAGIC = 0x464C5348;
+    private final int VERSION = 1;
+    private final String SCHEDULE_CACHE = "scheduleCache";
+    private final String STALE_SCHEDULE_CACHE = "staleScheduleCache";
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Value("${flights.snapshot.file:}")
+    private String file = "";
+
+    @Value("${flights.snapshot.refresh-batch:20}")
+    private int refreshBatch = 20;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private ScheduleFlightsService scheduleFlightsService;
+
+    @Autowired
+    @Qualifier("upstreamExecutor")
+    private Executor upstreamExecutor;
+
+    /**
+     * Load the snapshot into the caches, if there is one, and refresh the routes and the months of the timetables
+     * in background. A snapshot that can not be read is ignored
+     */
+    @PostConstruct
+    public void load() {
+        if (file.isEmpty() || !Files.exists(Paths.get(file))) {
+            return;
+        }
+        List<Timetable> loaded = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn(String.format("snapshot %s ignored: unknown format", file));
+                return;
+            }
+            long created = buffer.getLong();
+            String[] airports = readStrings(buffer);
+            RouteGraph routes = readRoutes(buffer, airports);
+            String[] numbers = readStrings(buffer);
+            int timetables = buffer.getInt();
+
+            routeService.restore(routes);
+            Cache cache = cacheManager.getCache(SCHEDULE_CACHE);
+            Cache staleCache = cacheManager.getCache(STALE_SCHEDULE_CACHE);
+            boolean fresh = cache != null && isFresh(cache, created);
+            for (int i = 0; i < timetables; i++) {
+                Timetable timetable = readTimetable(buffer, airports, numbers);
+                SimpleKey key = new SimpleKey(timetable.getDeparture(), timetable.getArrival(), timetable.getYearMonth());
+                if (fresh) {
+                    cache.putIfAbsent(key, Optional.of(timetable));
+                }
+                if (staleCache != null) {
+                    staleCache.putIfAbsent(key, Optional.of(timetable));
+                }
+                loaded.add(timetable);
+            }
+            logger.info(String.format("snapshot %s created %s loaded: %d routes, %d timetables %s", file,
+                    new Date(created), routes.getRoutesCount(), timetables, fresh ? "fresh" : "stale"));
+        } catch (IOException | RuntimeException e) {
+            logger.error(String.format("snapshot %s ignored: %s", file, e.getMessage()));
+            return;
+        }
+        upstreamExecutor.execute(() -> {
+            routeService.refresh();
+            refresh(loaded);
+        });
+    }
+
+    /**
+     * @return true if the snapshot was created within the expiration of the cache. Unknown when the cache is not
+     * a Caffeine one with expireAfterWrite, then the snapshot is not fresh
+     */
+    private boolean isFresh(Cache cache, long created) {
+        Object nativeCache = cache.getNativeCache();
+        if (!(nativeCache instanceof com.github.benmanes.caffeine.cache.Cache)) {
+            return false;
+        }
+        long age = System.currentTimeMillis() - created;
+        return ((com.github.benmanes.caffeine.cache.Cache<?, ?>) nativeCache).policy().expireAfterWrite()
+                .map(expiration -> age >= 0 && age < expiration.getExpiresAfter(TimeUnit.MILLISECONDS))
+                .orElse(false);
+    }
+
+    /**
+     * Request the months of the timetables not cached, by the load or meanwhile by the searches or the crawler,
+     * refreshBatch at a time, so the upstream does not get them all at once at startup. The next batch is requested
+     * in the upstreamExecutor when the previous one is received, no thread waits for them
+     */
+    private void refresh(List<Timetable> timetables) {
+        refresh(timetables, 0, 0);
+    }
+
+    private void refresh(List<Timetable> timetables, int from, int requested) {
+        List<CompletableFuture<Optional<Timetable>>> batch = new ArrayList<>();
+        int next = from;
+        for (; next < timetables.size() && batch.size() < refreshBatch; next++) {
+            Timetable timetable = timetables.get(next);
+            if (!scheduleFlightsService.isCached(timetable.getDeparture(), timetable.getArrival(), timetable.getYearMonth())) {
+                batch.add(scheduleFlightsService.getScheduledFlightsByMonthAsync(timetable.getDeparture(),
+                        timetable.getArrival(), timetable.getYearMonth()));
+            }
+        }
+        if (batch.isEmpty()) {
+            logger.info(String.format("snapshot %s refreshed: %d of %d timetables requested", file, requested,
+                    timetables.size()));
+            return;
+        }
+        int last = next;
+        int total = requested + batch.size();
+        CompletableFuture.allOf(batch.toArray(new CompletableFuture[0]))
+                .whenCompleteAsync((done, e) -> refresh(timetables, last, total), upstreamExecutor);
+    }
+
+    /**
+     * Write the routes graph and the cached timetables to the snapshot file. The file is written aside and then moved,
+     * so a snapshot being loaded is never partially written
+     */
+    @Scheduled(fixedDelayString = "${flights.snapshot.interval:600000}", initialDelayString = "${flights.snapshot.interval:600000}")
+    public void write() {
+        if (file.isEmpty()) {
+            return;
+        }
+        RouteGraph routesGraph = routeService.getCurrentRoutes();
+        List<Timetable> timetables = getCachedTimetables();
+        if (routesGraph.isEmpty() && timetables.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(file);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                write(out, routesGraph, timetables);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info(String.format("snapshot %s written: %d routes, %d timetables", file,
+                    routesGraph.getRoutesCount(), timetables.size()));
+        } catch (IOException e) {
+            logger.error(String.format("snapshot %s not written: %s", file, e.getMessage()));
+        }
+    }
+
+    private void write(DataOutputStream out, RouteGraph routesGraph, List<Timetable> timetables) throws IOException {
+        Map<String, Integer> airports = new LinkedHashMap<>();
+        for (int i = 0; i < routesGraph.size(); i++) {
+            airports.put(routesGraph.getAirport(i), i);
+        }
+        Map<String, Integer> numbers = new LinkedHashMap<>();
+        for (Timetable timetable : timetables) {
+            airports.putIfAbsent(timetable.getDeparture(), airports.size());
+            airports.putIfAbsent(timetable.getArrival(), airports.size());
+            for (int i = 0; i < timetable.size(); i++) {
+                numbers.putIfAbsent(timetable.getNumber(i), numbers.size());
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        writeStrings(out, airports.keySet());
+        out.writeInt(routesGraph.getRoutesCount());
+        for (int from = 0; from < routesGraph.size(); from++) {
+            for (int route = routesGraph.getFirstRoute(from); route < routesGraph.getLastRoute(from); route++) {
+                out.writeInt(from);
+                out.writeInt(routesGraph.getTarget(route));
+            }
+        }
+        writeStrings(out, numbers.keySet());
+        out.writeInt(timetables.size());
+        for (Timetable timetable : timetables) {
+            out.writeInt(airports.get(timetable.getDeparture()));
+            out.writeInt(airports.get(timetable.getArrival()));
+            out.writeInt(timetable.getYearMonth().getYear());
+            out.writeInt(timetable.getYearMonth().getMonthValue());
+            out.writeInt(timetable.size());
+            for (int i = 0; i < timetable.size(); i++) {
+                out.writeInt(timetable.getDepartureMinutes(i));
+            }
+            for (int i = 0; i < timetable.size(); i++) {
+                out.writeInt(timetable.getArrivalMinutes(i));
+            }
+            for (int i = 0; i < timetable.size(); i++) {
+                out.writeInt(numbers.get(timetable.getNumber(i)));
+            }
+        }
+    }
+
+    private List<Timetable> getCachedTimetables() {
+        Cache cache = cacheManager.getCache(SCHEDULE_CACHE);
+        Object nativeCache = cache == null ? null : cache.getNativeCache();
+        Collection<?> values = Collections.emptyList();
+        if (nativeCache instanceof com.github.benmanes.caffeine.cache.Cache) {
+            values = ((com.github.benmanes.caffeine.cache.Cache<?, ?>) nativeCache).asMap().values();
+        } else if (nativeCache instanceof Map) {
+            values = ((Map<?, ?>) nativeCache).values();
+        }
+        List<Timetable> timetables = new ArrayList<>();
+        for (Object value : values) {
+            if (value instanceof Optional && ((Optional<?>) value).isPresent()) {
+                timetables.add((Timetable) ((Optional<?>) value).get());
+            }
+        }
+        return timetables;
+    }
+
+    private RouteGraph readRoutes(ByteBuffer buffer, String[] airports) {
+        int count = buffer.getInt();
+        RouteGraph.Builder routes = new RouteGraph.Builder();
+        for (int i = 0; i < count; i++) {
+            routes.addRoute(airports[buffer.getInt()], airports[buffer.getInt()]);
+        }
+        return routes.build();
+    }
+
+    /**
+     * Read the header of a timetable and leave the buffer after its flights, which are not read
+     */
+    private Timetable readTimetable(ByteBuffer buffer, String[] airports, String[] numbers) {
+        String departure = airports[buffer.getInt()];
+        String arrival = airports[buffer.getInt()];
+        YearMonth yearMonth = YearMonth.of(buffer.getInt(), buffer.getInt());
+        int flights = buffer.getInt();
+        IntBuffer departures = column(buffer, flights);
+        IntBuffer arrivals = column(buffer, flights);
+        IntBuffer numberIds = column(buffer, flights);
+        return Timetable.of(departure, arrival, yearMonth, numbers, numberIds, departures, arrivals);
+    }
+
+    private IntBuffer column(ByteBuffer buffer, int size) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(size * Integer.BYTES);
+        buffer.position(buffer.position() + size * Integer.BYTES);
+        return slice.asIntBuffer();
+    }
+
+    private void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,76 @@
+package com.rest.webservices.flights;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rest.webservices.flights.fake.FakeUpstreamServer;
+import com.rest.webservices.flights.fake.SyntheticNetwork;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * The whole stack against the {@link FakeUpstreamServer}, without requests to the real upstream
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+		properties = {"flights.snapshot.file=", "flights.crawler.enabled=false"})
+class InterconnectionsOfflineTests {
+
+	private static final FakeUpstreamServer upstream = start();
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@DynamicPropertySource
+	static void upstreamProperties(DynamicPropertyRegistry registry) {
+		registry.add("flights.upstream.routes-base-url", upstream::getBaseUrl);
+		registry.add("flights.upstream.schedules-base-url", upstream::getBaseUrl);
+	}
+
+	@AfterAll
+	static void stop() {
+		upstream.stop();
+	}
+
+	@Test
+	void interconnections() throws Exception {
+		String arrival = upstream.getNetwork().getDestinations("AAA").iterator().next();
+		LocalDate date = LocalDate.now().plusMonths(1);
+
+		ResponseEntity<String> response = restTemplate.getForEntity(
+				"/interconnections?departure=AAA&arrival={arrival}&departureDateTime={departure}&arrivalDateTime={arrival}",
+				String.class, arrival, date.atStartOfDay(), date.plusDays(1).atTime(23, 59));
+
+		assertThat(response.getStatusCode(), is(HttpStatus.OK));
+		JsonNode interconnections = objectMapper.readTree(response.getBody());
+		assertThat(interconnections.size(), is(greaterThan(0)));
+		assertThat(interconnections.get(0).get("stops").asInt(), is(0));
+		assertThat(interconnections.get(0).get("legs").get(0).get("arrivalAirport").asText(), is(arrival));
+		assertThat(upstream.getRoutesRequests(), is(greaterThan(0L)));
+		assertThat(upstream.getSchedulesRequests(), is(greaterThan(0L)));
+	}
+
+	private static FakeUpstreamServer start() {
+		try {
+			return new FakeUpstreamServer(new SyntheticNetwork(1, 60, 6, 1.0, 2), Duration.ZERO, 0, 1).start(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
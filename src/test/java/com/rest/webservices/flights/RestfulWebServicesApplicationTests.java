@@ -1,13 +1,26 @@
 package com.rest.webservices.flights;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
 
-@SpringBootTest
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItems;
+
+@SpringBootTest(properties = "flights.snapshot.file=")
 class RestfulWebServicesApplicationTests {
 
+	@Autowired
+	private CacheManager cacheManager;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void cachesConfiguredFromProperties() {
+		assertThat(cacheManager.getCacheNames(), hasItems("scheduleCache", "noScheduleCache", "staleScheduleCache"));
+	}
+
 }
@@ -0,0 +1,25 @@
+package com.rest.webservices.flights.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks matching the first argument (all of them by default) with the GC profiler, so the
+ * allocation rate (gc.alloc.rate.norm, bytes per operation) is reported along with the throughput. The forked JVMs
+ * only log warnings.
+ * Used by the benchmarks profile: mvn -Pbenchmarks test
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*Benchmark.*")
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("-Dlogback.configurationFile=logback-benchmark.xml")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,68 @@
+package com.rest.webservices.flights.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class CacheConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(PropertiesConfiguration.class, CacheConfiguration.class);
+
+    @Test
+    void cacheManager_specsFromProperties() {
+        contextRunner
+                .withPropertyValues(
+                        "flights.cache.specs.scheduleCache=maximumSize=2,expireAfterWrite=6h,recordStats",
+                        "flights.cache.default-spec=maximumSize=5,expireAfterWrite=1m")
+                .run(context -> {
+                    CacheManager cacheManager = context.getBean(CacheManager.class);
+                    assertThat(cacheManager.getCacheNames(), contains("scheduleCache"));
+
+                    Cache<Object, Object> schedules = nativeCache(cacheManager, "scheduleCache");
+                    assertThat(schedules.policy().eviction().get().getMaximum(), is(2L));
+                    assertThat(schedules.policy().expireAfterWrite().get().getExpiresAfter(), is(Duration.ofHours(6)));
+                    assertThat(schedules.policy().isRecordingStats(), is(true));
+
+                    Cache<Object, Object> other = nativeCache(cacheManager, "otherCache");
+                    assertThat(other.policy().eviction().get().getMaximum(), is(5L));
+                    assertThat(other.policy().expireAfterWrite().get().getExpiresAfter(), is(Duration.ofMinutes(1)));
+                    assertThat(other.policy().isRecordingStats(), is(false));
+                });
+    }
+
+    @Test
+    void cacheManager_statistics() {
+        contextRunner
+                .withPropertyValues("flights.cache.specs.scheduleCache=maximumSize=10,recordStats")
+                .run(context -> {
+                    org.springframework.cache.Cache cache = context.getBean(CacheManager.class).getCache("scheduleCache");
+                    cache.get("MAD-DUB");
+                    cache.put("MAD-DUB", Optional.empty());
+                    cache.get("MAD-DUB");
+
+                    Cache<Object, Object> schedules = ((CaffeineCache) cache).getNativeCache();
+                    assertThat(schedules.stats().hitCount(), is(1L));
+                    assertThat(schedules.stats().missCount(), is(1L));
+                });
+    }
+
+    private Cache<Object, Object> nativeCache(CacheManager cacheManager, String name) {
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    static class PropertiesConfiguration {
+    }
+}
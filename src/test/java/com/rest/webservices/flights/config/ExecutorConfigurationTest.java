@@ -0,0 +1,105 @@
+package com.rest.webservices.flights.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ExecutorConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(PropertiesConfiguration.class, ExecutorConfiguration.class);
+
+    @Test
+    void executors_sizesFromProperties() {
+        contextRunner
+                .withPropertyValues(
+                        "flights.executor.upstream.core-size=2",
+                        "flights.executor.upstream.max-size=4",
+                        "flights.executor.upstream.queue-capacity=10")
+                .run(context -> {
+                    ThreadPoolTaskExecutor upstream = context.getBean("upstreamExecutor", ThreadPoolTaskExecutor.class);
+                    assertThat(upstream.getCorePoolSize(), is(2));
+                    assertThat(upstream.getMaxPoolSize(), is(4));
+                    assertThat(upstream.getThreadPoolExecutor().getQueue().remainingCapacity(), is(10));
+                    assertThat(upstream.getThreadNamePrefix(), is("upstream-"));
+
+                    ThreadPoolTaskExecutor search = context.getBean("searchExecutor", ThreadPoolTaskExecutor.class);
+                    assertThat(search.getCorePoolSize(), is(Runtime.getRuntime().availableProcessors()));
+                    assertThat(search.getThreadNamePrefix(), is("search-"));
+                });
+    }
+
+    @Test
+    void configureAsyncSupport_streamingExecutor() {
+        contextRunner
+                .withPropertyValues("flights.executor.streaming.core-size=2", "flights.executor.streaming.max-size=4")
+                .run(context -> {
+                    AsyncSupportConfigurer configurer = new AsyncSupportConfigurer();
+                    context.getBean(ExecutorConfiguration.class).configureAsyncSupport(configurer);
+
+                    ThreadPoolTaskExecutor streaming = context.getBean("streamingExecutor", ThreadPoolTaskExecutor.class);
+                    assertThat(ReflectionTestUtils.getField(configurer, "taskExecutor"), is(sameInstance(streaming)));
+                    assertThat(streaming.getMaxPoolSize(), is(4));
+                    assertThat(streaming.getThreadNamePrefix(), is("streaming-"));
+                });
+    }
+
+    @Test
+    void executors_fullPoolRunsInTheCaller() {
+        contextRunner
+                .withPropertyValues(
+                        "flights.executor.upstream.core-size=1",
+                        "flights.executor.upstream.max-size=1",
+                        "flights.executor.upstream.queue-capacity=1")
+                .run(context -> {
+                    ThreadPoolTaskExecutor upstream = context.getBean("upstreamExecutor", ThreadPoolTaskExecutor.class);
+                    CountDownLatch blocked = new CountDownLatch(1);
+                    upstream.execute(() -> await(blocked));
+                    upstream.execute(() -> await(blocked));
+                    String[] thread = new String[1];
+                    upstream.execute(() -> thread[0] = Thread.currentThread().getName());
+                    blocked.countDown();
+
+                    assertThat(thread[0], is(Thread.currentThread().getName()));
+                });
+    }
+
+    @Test
+    void executors_metrics() {
+        contextRunner.run(context -> {
+            MeterRegistry registry = new SimpleMeterRegistry();
+            context.getBean(MeterBinder.class).bindTo(registry);
+
+            assertThat(registry.get("executor.active").tag("name", "upstream").gauge(), is(notNullValue()));
+            assertThat(registry.get("executor.queued").tag("name", "upstream").gauge(), is(notNullValue()));
+            assertThat(registry.get("executor.active").tag("name", "search").gauge(), is(notNullValue()));
+            assertThat(registry.get("executor.queued").tag("name", "search").gauge(), is(notNullValue()));
+            assertThat(registry.get("executor.active").tag("name", "streaming").gauge(), is(notNullValue()));
+        });
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    static class PropertiesConfiguration {
+    }
+}
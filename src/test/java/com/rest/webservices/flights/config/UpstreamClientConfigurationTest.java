@@ -0,0 +1,76 @@
+package com.rest.webservices.flights.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.reactive.function.client.WebClientAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+import reactor.netty.resources.ConnectionProvider;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class UpstreamClientConfigurationTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(RestTemplateAutoConfiguration.class, WebClientAutoConfiguration.class))
+            .withUserConfiguration(PropertiesConfiguration.class, UpstreamClientConfiguration.class);
+
+    @Test
+    void upstreamConnectionManager_sizesFromProperties() {
+        contextRunner
+                .withPropertyValues(
+                        "flights.upstream.max-connections=20",
+                        "flights.upstream.max-connections-per-route=5")
+                .run(context -> {
+                    PoolingHttpClientConnectionManager connectionManager = context.getBean(PoolingHttpClientConnectionManager.class);
+                    assertThat(connectionManager.getMaxTotal(), is(20));
+                    assertThat(connectionManager.getDefaultMaxPerRoute(), is(5));
+                    assertThat(context.getBean(RestTemplate.class).getRequestFactory(),
+                            is(instanceOf(HttpComponentsClientHttpRequestFactory.class)));
+                    assertThat(maxConnections(context.getBean(ConnectionProvider.class)), is(5));
+                });
+    }
+
+    @Test
+    void upstreamConnectionProvider_boundedByMaxConnections() {
+        contextRunner
+                .withPropertyValues(
+                        "flights.upstream.max-connections=4",
+                        "flights.upstream.max-connections-per-route=5")
+                .run(context -> assertThat(maxConnections(context.getBean(ConnectionProvider.class)), is(4)));
+    }
+
+    @Test
+    void upstreamConnectionManager_metrics() {
+        contextRunner.run(context -> {
+            MeterRegistry registry = new SimpleMeterRegistry();
+            context.getBean("upstreamConnectionsMetrics", MeterBinder.class).bindTo(registry);
+
+            assertThat(registry.get("httpcomponents.httpclient.pool.total.max").tag("httpclient", "upstream").gauge().value(), is(100.0));
+            assertThat(registry.get("httpcomponents.httpclient.pool.total.connections").tag("state", "leased").gauge().value(), is(0.0));
+        });
+    }
+
+    /**
+     * ConnectionProvider.maxConnections() is deprecated with no replacement, the limit is read from the pool settings
+     */
+    private int maxConnections(ConnectionProvider connectionProvider) {
+        return (int) ReflectionTestUtils.getField(ReflectionTestUtils.getField(connectionProvider, "defaultPoolFactory"),
+                "maxConnections");
+    }
+
+    @Configuration
+    @EnableConfigurationProperties
+    static class PropertiesConfiguration {
+    }
+}
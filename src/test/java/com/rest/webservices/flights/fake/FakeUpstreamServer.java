@@ -0,0 +1,209 @@
+package com.rest.webservices.flights.fake;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded HTTP server answering the routes (/locate/3/routes) and schedules
+ * (/timtbl/3/schedules/{departure}/{arrival}/years/{year}/months/{month}) contracts of the upstream API with a
+ * {@link SyntheticNetwork}. Every response is delayed by latency, and errorRate of them fail with a 500.
+ * The service is pointed to it with the flights.upstream.routes-base-url and flights.upstream.schedules-base-url
+ * properties, so the whole stack can be exercised offline.
+ * <p>
+ * It can be run alone with {@link #main}, configured with the system properties fake.port (8089), fake.seed (1),
+ * fake.airports (200), fake.mean-degree (10), fake.skew (1.0), fake.flights-per-day (3), fake.latency-ms (50) and
+ * fake.error-rate (0).
+ */
+public class FakeUpstreamServer {
+
+    private static final Pattern SCHEDULES = Pattern.compile("/timtbl/3/schedules/([A-Z]{3})/([A-Z]{3})/years/(\\d+)/months/(\\d+)");
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm");
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SyntheticNetwork network;
+    private final Duration latency;
+    private final double errorRate;
+    private final Random random;
+    private final AtomicLong routesRequests = new AtomicLong();
+    private final AtomicLong schedulesRequests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+    private byte[] routes;
+
+    public FakeUpstreamServer(SyntheticNetwork network, Duration latency, double errorRate, long seed) {
+        this.network = network;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param port 0 for any free port
+     */
+    public FakeUpstreamServer start(int port) throws IOException {
+        routes = objectMapper.writeValueAsBytes(routesResponse());
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        // the latency is waited in the server threads, so they are not limited
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/locate/3/routes", this::routes);
+        server.createContext("/timtbl/3/schedules/", this::schedules);
+        server.start();
+        logger.info(String.format("fake upstream at %s: %d airports, %d routes", getBaseUrl(),
+                network.getAirports().size(), network.getRoutesCount()));
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public SyntheticNetwork getNetwork() {
+        return network;
+    }
+
+    public long getRoutesRequests() {
+        return routesRequests.get();
+    }
+
+    public long getSchedulesRequests() {
+        return schedulesRequests.get();
+    }
+
+    /**
+     * @return requests answered with an injected error
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    private void routes(HttpExchange exchange) throws IOException {
+        routesRequests.incrementAndGet();
+        if (delayOrFail(exchange)) {
+            return;
+        }
+        respond(exchange, 200, routes);
+    }
+
+    private void schedules(HttpExchange exchange) throws IOException {
+        schedulesRequests.incrementAndGet();
+        if (delayOrFail(exchange)) {
+            return;
+        }
+        Matcher matcher = SCHEDULES.matcher(exchange.getRequestURI().getPath());
+        if (!matcher.matches() || !network.hasRoute(matcher.group(1), matcher.group(2))) {
+            respond(exchange, 404, new byte[0]);
+            return;
+        }
+        YearMonth yearMonth = YearMonth.of(Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)));
+        respond(exchange, 200, objectMapper.writeValueAsBytes(
+                schedulesResponse(network.getSchedules(matcher.group(1), matcher.group(2), yearMonth), yearMonth)));
+    }
+
+    /**
+     * @return true if the request has been answered with an injected error
+     */
+    private boolean delayOrFail(HttpExchange exchange) throws IOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(latency.toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < errorRate;
+        }
+        if (fail) {
+            errors.incrementAndGet();
+            respond(exchange, 500, new byte[0]);
+        }
+        return fail;
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private List<Map<String, Object>> routesResponse() {
+        List<Map<String, Object>> response = new ArrayList<>(network.getRoutesCount());
+        for (String from : network.getAirports()) {
+            for (String to : network.getDestinations(from)) {
+                Map<String, Object> route = new LinkedHashMap<>();
+                route.put("airportFrom", from);
+                route.put("airportTo", to);
+                route.put("connectingAirport", null);
+                route.put("newRoute", false);
+                route.put("seasonalRoute", false);
+                route.put("operator", "RYANAIR");
+                route.put("group", "CITY");
+                response.add(route);
+            }
+        }
+        return response;
+    }
+
+    private Map<String, Object> schedulesResponse(List<List<Object[]>> schedules, YearMonth yearMonth) {
+        List<Map<String, Object>> days = new ArrayList<>(schedules.size());
+        for (int day = 0; day < schedules.size(); day++) {
+            List<Map<String, Object>> flights = new ArrayList<>();
+            for (Object[] flight : schedules.get(day)) {
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("carrierCode", "FR");
+                response.put("number", flight[0]);
+                response.put("departureTime", TIME.format((LocalTime) flight[1]));
+                response.put("arrivalTime", TIME.format((LocalTime) flight[2]));
+                flights.add(response);
+            }
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("day", day + 1);
+            response.put("flights", flights);
+            days.add(response);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("month", yearMonth.getMonthValue());
+        response.put("days", days);
+        return response;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SyntheticNetwork network = new SyntheticNetwork(Long.getLong("fake.seed", 1),
+                Integer.getInteger("fake.airports", 200), Integer.getInteger("fake.mean-degree", 10),
+                Double.parseDouble(System.getProperty("fake.skew", "1.0")), Integer.getInteger("fake.flights-per-day", 3));
+        new FakeUpstreamServer(network, Duration.ofMillis(Long.getLong("fake.latency-ms", 50)),
+                Double.parseDouble(System.getProperty("fake.error-rate", "0")), Long.getLong("fake.seed", 1))
+                .start(Integer.getInteger("fake.port", 8089));
+    }
+}
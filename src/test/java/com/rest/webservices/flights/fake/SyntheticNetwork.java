@@ -0,0 +1,122 @@
+package com.rest.webservices.flights.fake;
+
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Routes network and timetables generated from a seed, so the same settings always produce the same network.
+ * The airports are picked for the routes with a weight 1 / (rank + 1) ^ skew, so a few of them are hubs with many
+ * routes and most of them have only a few, as in real networks. Every route is operated in both directions.
+ * The timetable of a route is generated on demand from the seed, the route and the month: flightsPerDay flights
+ * every day at random times with the same duration, between 45 minutes and 4 hours.
+ */
+public class SyntheticNetwork {
+
+    private final long seed;
+    private final String[] airports;
+    private final int flightsPerDay;
+    private final Map<String, Set<String>> routes = new LinkedHashMap<>();
+    private int routesCount;
+
+    /**
+     * @param airports      number of airports
+     * @param meanDegree    mean number of routes departing from an airport
+     * @param skew          0 for the same weight for all the airports, higher for bigger hubs
+     * @param flightsPerDay flights of each route every day
+     */
+    public SyntheticNetwork(long seed, int airports, int meanDegree, double skew, int flightsPerDay) {
+        this.seed = seed;
+        this.airports = new String[airports];
+        this.flightsPerDay = flightsPerDay;
+        for (int i = 0; i < airports; i++) {
+            this.airports[i] = code(i);
+            routes.put(this.airports[i], new LinkedHashSet<>());
+        }
+        generateRoutes(new Random(seed), meanDegree, skew);
+    }
+
+    public List<String> getAirports() {
+        return Arrays.asList(airports);
+    }
+
+    public Set<String> getDestinations(String airport) {
+        return routes.get(airport);
+    }
+
+    public boolean hasRoute(String departure, String arrival) {
+        Set<String> destinations = routes.get(departure);
+        return destinations != null && destinations.contains(arrival);
+    }
+
+    /**
+     * @return routes, each direction counted once
+     */
+    public int getRoutesCount() {
+        return routesCount;
+    }
+
+    /**
+     * @return flights of each day of the month as {number, departure time, arrival time}, the same for the same
+     * route and month. Flights arriving the next day have an arrival time before the departure time
+     */
+    public List<List<Object[]>> getSchedules(String departure, String arrival, YearMonth yearMonth) {
+        Random random = new Random(seed ^ ((long) (departure + arrival).hashCode() << 20) ^ yearMonth.hashCode());
+        int durationMinutes = 45 + new Random(seed ^ (departure + arrival).hashCode()).nextInt(196);
+        List<List<Object[]>> days = new ArrayList<>(yearMonth.lengthOfMonth());
+        for (int day = 1; day <= yearMonth.lengthOfMonth(); day++) {
+            List<Object[]> flights = new ArrayList<>(flightsPerDay);
+            for (int i = 0; i < flightsPerDay; i++) {
+                LocalTime departureTime = LocalTime.of(5, 0).plusMinutes(5 * random.nextInt(216));
+                flights.add(new Object[]{String.valueOf(1000 + random.nextInt(9000)), departureTime,
+                        departureTime.plusMinutes(durationMinutes)});
+            }
+            days.add(flights);
+        }
+        return days;
+    }
+
+    private void generateRoutes(Random random, int meanDegree, double skew) {
+        double[] cumulative = new double[airports.length];
+        double total = 0;
+        for (int i = 0; i < airports.length; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        long pairs = (long) airports.length * meanDegree / 2;
+        long maxPairs = (long) airports.length * (airports.length - 1) / 2;
+        // the attempts are bounded, the hubs may be full with high skews
+        for (long attempts = 0; routesCount / 2 < Math.min(pairs, maxPairs) && attempts < pairs * 20; attempts++) {
+            String from = airports[pick(cumulative, random.nextDouble() * total)];
+            String to = airports[pick(cumulative, random.nextDouble() * total)];
+            if (!from.equals(to) && routes.get(from).add(to)) {
+                routes.get(to).add(from);
+                routesCount += 2;
+            }
+        }
+    }
+
+    private int pick(double[] cumulative, double value) {
+        int position = Arrays.binarySearch(cumulative, value);
+        return Math.min(position < 0 ? -position - 1 : position, cumulative.length - 1);
+    }
+
+    /**
+     * @return IATA like code of the airport i: AAA, AAB...
+     */
+    private static String code(int i) {
+        char[] code = new char[3];
+        for (int c = 2; c >= 0; c--) {
+            code[c] = (char) ('A' + i % 26);
+            i /= 26;
+        }
+        return new String(code);
+    }
+}
@@ -0,0 +1,57 @@
+package com.rest.webservices.flights.fake;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class SyntheticNetworkTest {
+
+    private final YearMonth may = YearMonth.of(2019, 5);
+
+    @Test
+    void sameSeedSameNetwork() {
+        SyntheticNetwork network = new SyntheticNetwork(7, 100, 6, 1.0, 3);
+        SyntheticNetwork same = new SyntheticNetwork(7, 100, 6, 1.0, 3);
+
+        assertThat(network.getRoutesCount(), is(same.getRoutesCount()));
+        for (String airport : network.getAirports()) {
+            assertThat(same.getDestinations(airport), is(network.getDestinations(airport)));
+        }
+        String destination = network.getDestinations("AAA").iterator().next();
+        List<List<Object[]>> schedules = network.getSchedules("AAA", destination, may);
+        List<List<Object[]>> sameSchedules = same.getSchedules("AAA", destination, may);
+        assertThat(schedules, hasSize(31));
+        for (int day = 0; day < schedules.size(); day++) {
+            assertThat(schedules.get(day), hasSize(3));
+            for (int i = 0; i < 3; i++) {
+                assertThat(sameSchedules.get(day).get(i), is(schedules.get(day).get(i)));
+            }
+        }
+    }
+
+    @Test
+    void routesInBothDirections() {
+        SyntheticNetwork network = new SyntheticNetwork(1, 50, 4, 1.0, 1);
+
+        assertThat(network.getRoutesCount(), is(50 * 4 / 2 * 2));
+        for (String from : network.getAirports()) {
+            for (String to : network.getDestinations(from)) {
+                assertThat(network.hasRoute(to, from), is(true));
+                assertThat(to, is(not(from)));
+            }
+        }
+    }
+
+    @Test
+    void skewMakesHubs() {
+        SyntheticNetwork network = new SyntheticNetwork(1, 200, 6, 1.2, 1);
+
+        // the first airports get the highest weights
+        assertThat(network.getDestinations("AAA").size(), is(greaterThan(6 * 4)));
+        assertThat(network.getAirports().get(199), is("AHR"));
+    }
+}
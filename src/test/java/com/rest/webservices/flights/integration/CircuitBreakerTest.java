@@ -0,0 +1,134 @@
+package com.rest.webservices.flights.integration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+
+    private final List<CompletableFuture<String>> requests = new ArrayList<>();
+
+    @Test
+    void call_opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, Duration.ofMinutes(1));
+
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        breaker.call(this::request);
+        requests.get(1).completeExceptionally(new IllegalStateException("timeout"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        // not sent while open
+        CompletableFuture<String> rejected = breaker.call(this::request);
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+        assertThat(requests, hasSize(2));
+    }
+
+    @Test
+    void isOpen_untilTheProbeIsAllowed() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, Duration.ZERO);
+        assertThat(breaker.isOpen(), is(false));
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+
+        // open duration over: open but the next request is the probe
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.isOpen(), is(false));
+        breaker.call(this::request);
+        assertThat(breaker.isOpen(), is(true));
+        requests.get(1).complete("ok");
+        assertThat(breaker.isOpen(), is(false));
+
+        CircuitBreaker longer = new CircuitBreaker("test", 1, Duration.ofMinutes(1));
+        longer.onFailure();
+        assertThat(longer.isOpen(), is(true));
+    }
+
+    @Test
+    void call_successResetsTheFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, Duration.ofMinutes(1));
+
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+        CompletableFuture<String> success = breaker.call(this::request);
+        requests.get(1).complete("ok");
+        breaker.call(this::request);
+        requests.get(2).completeExceptionally(new IllegalStateException("timeout"));
+
+        assertThat(success.join(), is("ok"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void call_probeAfterOpenDuration() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, Duration.ZERO);
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        // failed probe, open again
+        breaker.call(this::request);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        requests.get(1).completeExceptionally(new IllegalStateException("timeout"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+
+        CompletableFuture<String> probe = breaker.call(this::request);
+        requests.get(2).complete("ok");
+        assertThat(probe.join(), is("ok"));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void call_halfOpenLetsOnlyTheProbeThrough() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, Duration.ZERO);
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+
+        breaker.call(this::request);
+        CompletableFuture<String> rejected = breaker.call(this::request);
+
+        assertThat(rejected.isCompletedExceptionally(), is(true));
+        assertThat(requests, hasSize(2));
+    }
+
+    @Test
+    void call_notSentIsNotAFailure() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, Duration.ofMinutes(1));
+
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new RejectedExecutionException("queue full"));
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    void bindTo_state() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, Duration.ofMinutes(1));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        breaker.bindTo(registry);
+
+        breaker.call(this::request);
+        requests.get(0).completeExceptionally(new IllegalStateException("timeout"));
+
+        assertThat(registry.get("upstream.circuit.state").tag("name", "test").gauge().value(), is(2.0));
+    }
+
+    private CompletableFuture<String> request() {
+        CompletableFuture<String> request = new CompletableFuture<>();
+        requests.add(request);
+        return request;
+    }
+}
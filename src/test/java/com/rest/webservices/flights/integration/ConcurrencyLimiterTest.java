@@ -0,0 +1,132 @@
+package com.rest.webservices.flights.integration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConcurrencyLimiterTest {
+
+    private final List<CompletableFuture<String>> requests = new ArrayList<>();
+
+    @Test
+    void submit_overTheLimitIsQueued() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 10, 10, Duration.ofMinutes(1), 0.5);
+
+        CompletableFuture<String> first = limiter.submit(this::request);
+        limiter.submit(this::request);
+        CompletableFuture<String> third = limiter.submit(this::request);
+
+        assertThat(requests, hasSize(2));
+        assertThat(limiter.getInFlight(), is(2));
+        assertThat(limiter.getQueued(), is(1));
+
+        requests.get(0).complete("first");
+        assertThat(first.join(), is("first"));
+        // the queued request is sent once there is room for it
+        assertThat(requests, hasSize(3));
+        assertThat(limiter.getQueued(), is(0));
+        requests.get(2).complete("third");
+        assertThat(third.join(), is("third"));
+    }
+
+    @Test
+    void submit_queueFullIsRejected() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10, 1, Duration.ofMinutes(1), 0.5);
+
+        limiter.submit(this::request);
+        limiter.submit(this::request);
+        CompletableFuture<String> rejected = limiter.submit(this::request);
+
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertThat(e.getCause(), is(instanceOf(RejectedExecutionException.class)));
+        assertThat(requests, hasSize(1));
+        assertThat(limiter.getRejected(), is(1L));
+    }
+
+    @Test
+    void limit_increasesWithSuccessesWhileInUse() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1, 3, 10, Duration.ofMinutes(1), 0.5);
+
+        // the limit is kept full: one request completes and another one is sent
+        limiter.submit(this::request);
+        for (int i = 0; i < 20; i++) {
+            limiter.submit(this::request);
+            requests.get(i).complete("ok");
+        }
+
+        // never over the max limit
+        assertThat(limiter.getLimit(), is(3));
+    }
+
+    @Test
+    void limit_notIncreasedWhileIdle() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 1, 10, 10, Duration.ofMinutes(1), 0.5);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.submit(() -> CompletableFuture.completedFuture("ok"));
+        }
+
+        assertThat(limiter.getLimit(), is(4));
+    }
+
+    @Test
+    void limit_decreasesOncePerRound() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 8, 1, 10, 10, Duration.ofMinutes(1), 0.5);
+
+        List<CompletableFuture<String>> failed = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            failed.add(limiter.submit(this::request));
+        }
+        requests.forEach(request -> request.completeExceptionally(new IllegalStateException("upstream failed")));
+
+        assertThat(failed.stream().allMatch(CompletableFuture::isCompletedExceptionally), is(true));
+        // the requests sent with the old limit decrease it once
+        assertThat(limiter.getLimit(), is(4));
+        assertThat(limiter.getInFlight(), is(0));
+
+        limiter.submit(this::request);
+        requests.get(4).completeExceptionally(new IllegalStateException("upstream failed"));
+        assertThat(limiter.getLimit(), is(2));
+    }
+
+    @Test
+    void limit_decreasesWithSlowRequests() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 1, 10, 10, Duration.ZERO, 0.5);
+
+        limiter.submit(() -> CompletableFuture.supplyAsync(() -> "slow")).join();
+
+        assertThat(limiter.getLimit(), is(2));
+    }
+
+    @Test
+    void metrics() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1, 10, 0, Duration.ofMinutes(1), 0.5);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        limiter.bindTo(registry);
+
+        limiter.submit(this::request);
+        limiter.submit(this::request);
+
+        assertThat(registry.get("upstream.limiter.limit").tag("name", "test").gauge().value(), is(1.0));
+        assertThat(registry.get("upstream.limiter.in-flight").tag("name", "test").gauge().value(), is(1.0));
+        assertThat(registry.get("upstream.limiter.queued").tag("name", "test").gauge().value(), is(0.0));
+        assertThat(registry.get("upstream.limiter.rejected").tag("name", "test").functionCounter().count(), is(1.0));
+    }
+
+    private CompletableFuture<String> request() {
+        CompletableFuture<String> request = new CompletableFuture<>();
+        requests.add(request);
+        return request;
+    }
+}
@@ -1,9 +1,12 @@
 package com.rest.webservices.flights.integration;
 
-import com.rest.webservices.flights.integration.response.RouteResponse;
+import com.rest.webservices.flights.config.CacheConfiguration;
+import com.rest.webservices.flights.config.UpstreamClientConfiguration;
 import com.rest.webservices.flights.integration.response.ScheduleResponse;
+import com.rest.webservices.flights.model.RouteGraph;
 import com.rest.webservices.flights.services.RouteService;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -12,6 +15,7 @@ import org.mockito.Mock;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
@@ -21,16 +25,35 @@ import static org.springframework.test.web.client.response.MockRestResponseCreat
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.client.RestClientTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @RestClientTest(RyanairApiService.class)
+@Import({CacheConfiguration.class, UpstreamClientConfiguration.class})
 class RyanairApiServiceTest {
 
     private final String ROUTES_URL = "https://services-api.ryanair.com/locate/3/routes";
@@ -62,6 +85,15 @@ class RyanairApiServiceTest {
             "        \"carrierCode\": \"FR\"\n" +
             "    }]";
 
+    // only AAL-STN is operated by Ryanair without connecting airport
+    private final String FILTERED_ROUTES_JSON = "[\n" +
+            "    {\"airportFrom\": \"AAL\", \"airportTo\": \"STN\", \"connectingAirport\": null, \"operator\": \"RYANAIR\", \"tags\": [\"a\", {\"b\": []}]},\n" +
+            "    {\"airportFrom\": \"AAL\", \"airportTo\": \"STN\", \"connectingAirport\": null, \"operator\": \"RYANAIR\"},\n" +
+            "    {\"airportFrom\": \"AAR\", \"airportTo\": \"GDN\", \"connectingAirport\": null, \"operator\": \"otroOperator\"},\n" +
+            "    {\"airportFrom\": \"AAR\", \"airportTo\": \"STN\", \"connectingAirport\": \"MAD\", \"operator\": \"RYANAIR\"},\n" +
+            "    {\"airportTo\": \"GDN\", \"operator\": \"RYANAIR\"}\n" +
+            "]";
+
     private final String SCHEDULE_JSON = "{\n" +
             "    \"month\": 9,\n" +
             "    \"days\": [\n" +
@@ -94,32 +126,67 @@ class RyanairApiServiceTest {
     @Autowired
     private  MockRestServiceServer server;
 
+    @Autowired
+    private FakeUpstream upstream;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @BeforeEach
+    void setUp() {
+        upstream.reset();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
 
     @Test
     public void testRoutes() throws Exception {
         server.expect(requestTo(ROUTES_URL))
                 .andRespond(withSuccess(ROUTES_JSON, MediaType.APPLICATION_JSON));
 
-       List<RouteResponse> routeResponses= ryanairApiService.getRoutes();
-       assertThat(routeResponses, hasSize(2));
-       assertThat(routeResponses, hasItems(
-               allOf(
-                       hasProperty("airportFrom",is("AAL")),
-                       hasProperty("airportTo",is("STN"))
-               ),
-               allOf(
-                       hasProperty("airportFrom",is("AAR")),
-                       hasProperty("airportTo",is("GDN"))
-               )
-       ));
+       RouteGraph routes = ryanairApiService.getRoutes();
+       assertThat(routes.getRoutesCount(), is(2));
+       assertThat(routes.getDestinations("AAL"), contains("STN"));
+       assertThat(routes.getDestinations("AAR"), contains("GDN"));
+    }
+
+    @Test
+    public void testRoutes_filtered() throws Exception {
+        server.expect(requestTo(ROUTES_URL))
+                .andRespond(withSuccess(FILTERED_ROUTES_JSON, MediaType.APPLICATION_JSON));
+
+        RouteGraph routes = ryanairApiService.getRoutes();
+        assertThat(routes.getRoutesCount(), is(1));
+        assertThat(routes.hasRoute("AAL", "STN"), is(true));
+        assertThat(routes.containsAirport("AAR"), is(false));
+    }
+
+    @Test
+    public void testRoutes_invalidFeed() throws Exception {
+        server.expect(requestTo(ROUTES_URL))
+                .andRespond(withSuccess("{\"airportFrom\": \"AAL\"}", MediaType.APPLICATION_JSON));
+
+        assertThat(ryanairApiService.getRoutes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRoutes_failure() throws Exception {
+        server.expect(ExpectedCount.once(), requestTo(ROUTES_URL))
+                .andRespond(withServerError());
+        server.expect(ExpectedCount.once(), requestTo(ROUTES_URL))
+                .andRespond(withSuccess(ROUTES_JSON, MediaType.APPLICATION_JSON));
+
+        assertThat(ryanairApiService.getRoutes().isEmpty(), is(true));
+        assertThat(ryanairApiService.getRoutes().getRoutesCount(), is(2));
+        server.verify();
     }
 
     @Test
     public void testSchedules() throws Exception {
-        server.expect(requestTo(String.format(SCHEDULES_URL, "MAD","STN",2019,9)))
-                .andRespond(withSuccess(SCHEDULE_JSON, MediaType.APPLICATION_JSON));
+        String url = String.format(SCHEDULES_URL, "MAD","STN",2019,9);
+        upstream.respond(url, HttpStatus.OK, SCHEDULE_JSON);
 
-        Optional<ScheduleResponse> scheduleResponse = ryanairApiService.getSchedules("MAD","STN",2019,9);
+        Optional<ScheduleResponse> scheduleResponse = ryanairApiService.getSchedulesAsync("MAD","STN",2019,9).join();
         assertThat(scheduleResponse.isPresent(), is(Boolean.TRUE));
         ScheduleResponse schedule = scheduleResponse.get();
         assertThat(schedule, hasProperty("month",is(9)));
@@ -134,5 +201,72 @@ class RyanairApiServiceTest {
                         hasProperty("flights",is(hasSize(1)))
                 )
         ));
+        assertThat(upstream.requests, contains(url));
+    }
+
+    @Test
+    public void testSchedulesAsync() throws Exception {
+        upstream.respond(String.format(SCHEDULES_URL, "MAD","STN",2019,9), HttpStatus.OK, SCHEDULE_JSON);
+        upstream.respond(String.format(SCHEDULES_URL, "MAD","STN",2019,10), HttpStatus.NOT_FOUND, "");
+        upstream.respond(String.format(SCHEDULES_URL, "MAD","STN",2019,11), HttpStatus.INTERNAL_SERVER_ERROR, "");
+
+        CompletableFuture<Optional<ScheduleResponse>> september = ryanairApiService.getSchedulesAsync("MAD","STN",2019,9);
+        CompletableFuture<Optional<ScheduleResponse>> october = ryanairApiService.getSchedulesAsync("MAD","STN",2019,10);
+        CompletableFuture<Optional<ScheduleResponse>> november = ryanairApiService.getSchedulesAsync("MAD","STN",2019,11);
+
+        assertThat(september.get().isPresent(), is(Boolean.TRUE));
+        // there are not schedules for the month
+        assertThat(october.get().isPresent(), is(Boolean.FALSE));
+        // the upstream failed
+        assertThrows(ExecutionException.class, november::get);
+        assertThat(upstream.requests, hasSize(3));
+    }
+
+    @Test
+    public void testSchedules_failure() throws Exception {
+        upstream.respond(String.format(SCHEDULES_URL, "MAD","STN",2019,9), HttpStatus.INTERNAL_SERVER_ERROR, "");
+
+        assertThrows(CompletionException.class, () -> ryanairApiService.getSchedulesAsync("MAD","STN",2019,9).join());
+    }
+
+    /**
+     * Answers the WebClient requests with the registered responses instead of sending them
+     */
+    static class FakeUpstream implements ExchangeFunction {
+        private final Map<String, ClientResponse.Builder> responses = new ConcurrentHashMap<>();
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+
+        void respond(String url, HttpStatus status, String body) {
+            responses.put(url, ClientResponse
+                    .create(status)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(body));
+        }
+
+        void reset() {
+            responses.clear();
+            requests.clear();
+        }
+
+        @Override
+        public Mono<ClientResponse> exchange(ClientRequest request) {
+            String url = request.url().toString();
+            requests.add(url);
+            ClientResponse.Builder response = responses.get(url);
+            return Mono.just(response == null ? ClientResponse.create(HttpStatus.NOT_FOUND).build() : response.build());
+        }
+    }
+
+    @TestConfiguration
+    static class FakeUpstreamConfiguration {
+        @Bean
+        FakeUpstream fakeUpstream() {
+            return new FakeUpstream();
+        }
+
+        @Bean
+        WebClientCustomizer fakeUpstreamCustomizer(FakeUpstream fakeUpstream) {
+            return builder -> builder.exchangeFunction(fakeUpstream);
+        }
     }
 }
@@ -0,0 +1,297 @@
+package com.rest.webservices.flights.loadtest;
+
+import com.rest.webservices.flights.RestfulWebServicesApplication;
+import com.rest.webservices.flights.fake.FakeUpstreamServer;
+import com.rest.webservices.flights.fake.SyntheticNetwork;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator driving /flights/interconnections at a fixed arrival rate, against the application wired to a
+ * {@link FakeUpstreamServer} in the same JVM, or against a running instance with load.target.
+ * <p>
+ * The requests are sent at their scheduled time whatever the latency of the previous ones (open model), and the latency
+ * is measured from that time, so a slow server is not hidden by the generator waiting for it. The query mix is
+ * generated from a seed: popular pairs between the hubs or long-tail pairs, narrow windows of one day or windows
+ * spanning the end of a month. The requests of the warmup are not recorded, and the measured ones are only sent once
+ * all of them are answered, so they do not count in the upstream calls either. A run whose requests are not all
+ * answered within a minute of its end is reported as incomplete and exits with an error.
+ * <p>
+ * It reports the latency histogram (p50, p90, p99, p99.9, max), the throughput, the error rate and the upstream calls
+ * per request. Configured with the system properties (defaults in brackets):
+ * <pre>
+ * load.rate (50) requests per second, load.duration (60) and load.warmup (10) seconds, load.seed (1),
+ * load.popular (0.8) ratio of popular pairs, load.narrow (0.7) ratio of narrow windows, load.max-stops (1),
+ * load.threads (200) requests in flight, load.histogram-file to write the full percentile distribution,
+ * load.target base URL of a running instance (the application and the fake upstream are not started then),
+ * fake.* settings of the fake upstream, see {@link FakeUpstreamServer}
+ * </pre>
+ * Run with: mvn -Ploadtest test -Dload.rate=100
+ */
+public class LoadTest {
+
+    private static final int HUBS = 10;
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(1);
+
+    private final Random random;
+    private final double popular;
+    private final double narrow;
+    private final int maxStops;
+    private final List<String> airports;
+    private final Histogram histogram = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Map<String, AtomicLong> queries = new HashMap<>();
+
+    LoadTest(long seed, double popular, double narrow, int maxStops, List<String> airports) {
+        this.random = new Random(seed);
+        this.popular = popular;
+        this.narrow = narrow;
+        this.maxStops = maxStops;
+        this.airports = airports;
+        for (String query : new String[]{"popular narrow", "popular month", "long-tail narrow", "long-tail month"}) {
+            queries.put(query, new AtomicLong());
+        }
+    }
+
+    /**
+     * @return path and query of the next request of the mix
+     */
+    String nextQuery() {
+        boolean isPopular = random.nextDouble() < popular;
+        boolean isNarrow = random.nextDouble() < narrow;
+        // the synthetic networks give the most routes to the first airports
+        int range = isPopular ? Math.min(HUBS, airports.size()) : airports.size();
+        int from = isPopular ? random.nextInt(range) : HUBS + random.nextInt(Math.max(range - HUBS, 1));
+        int to = isPopular ? random.nextInt(range) : random.nextInt(range);
+        if (to == from) {
+            to = (to + 1) % range;
+        }
+        LocalDateTime departure;
+        LocalDateTime arrival;
+        if (isNarrow) {
+            departure = LocalDate.now().plusDays(1 + random.nextInt(60)).atStartOfDay();
+            arrival = departure.plusDays(1);
+        } else {
+            // over the end of the month, so two months of timetables are looked up
+            LocalDate endOfMonth = LocalDate.now().plusMonths(1 + random.nextInt(2)).withDayOfMonth(1).minusDays(1);
+            departure = endOfMonth.minusDays(14).atStartOfDay();
+            arrival = endOfMonth.plusDays(15).atStartOfDay();
+        }
+        queries.get((isPopular ? "popular " : "long-tail ") + (isNarrow ? "narrow" : "month")).incrementAndGet();
+        return String.format("/interconnections?departure=%s&arrival=%s&departureDateTime=%s&arrivalDateTime=%s&maxStops=%d",
+                airports.get(Math.min(from, airports.size() - 1)), airports.get(to), departure, arrival, maxStops);
+    }
+
+    /**
+     * Send the requests at rate per second for duration, the first warmup are not recorded. Once the warmup requests
+     * are answered onWarm is run and the schedule of the measured ones starts
+     *
+     * @return false if some requests were not answered in time, the results are incomplete then
+     */
+    boolean run(CloseableHttpClient httpClient, String baseUrl, int rate, Duration warmup, Duration duration,
+                ExecutorService executor, Runnable onWarm) throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long warm = start + warmup.toNanos();
+        long end = warm + duration.toNanos();
+        boolean warming = true;
+        for (long next = start; next < end; next += interval) {
+            if (warming && next >= warm) {
+                warming = false;
+                if (!awaitDrained()) {
+                    executor.shutdownNow();
+                    return false;
+                }
+                queries.values().forEach(count -> count.set(0));
+                onWarm.run();
+                // the time waited for the warmup is not a delay of the measured requests
+                long shift = Math.max(System.nanoTime() - next, 0);
+                next += shift;
+                end += shift;
+            }
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            long scheduled = next;
+            boolean record = !warming;
+            String url = baseUrl + nextQuery();
+            inFlight.incrementAndGet();
+            executor.execute(() -> send(httpClient, url, scheduled, record));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+            executor.shutdownNow();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the requests sent are not answered within DRAIN_TIMEOUT
+     */
+    private boolean awaitDrained() throws InterruptedException {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * @return requests sent and not answered yet
+     */
+    long getInFlight() {
+        return inFlight.get();
+    }
+
+    private void send(CloseableHttpClient httpClient, String url, long scheduled, boolean record) {
+        boolean failed;
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+            EntityUtils.consume(response.getEntity());
+            failed = response.getStatusLine().getStatusCode() != 200;
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        if (record) {
+            synchronized (histogram) {
+                histogram.recordValue(Math.min(System.nanoTime() - scheduled, histogram.getHighestTrackableValue()));
+            }
+            requests.incrementAndGet();
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    void report(PrintStream out, Duration duration, long upstreamCalls, String histogramFile) throws IOException {
+        long count = requests.get();
+        out.println(String.format("requests: %d in %ds, %.1f req/s, errors: %d (%.2f%%)", count, duration.getSeconds(),
+                count / (double) duration.getSeconds(), errors.get(), count == 0 ? 0 : 100.0 * errors.get() / count));
+        out.println("query mix: " + queries);
+        synchronized (histogram) {
+            out.println(String.format("latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue())));
+            if (histogramFile != null) {
+                try (PrintStream file = new PrintStream(new FileOutputStream(histogramFile))) {
+                    histogram.outputPercentileDistribution(file, 1_000_000.0);
+                }
+            }
+        }
+        if (upstreamCalls >= 0) {
+            out.println(String.format("upstream calls: %d, %.2f per request", upstreamCalls,
+                    count == 0 ? 0 : upstreamCalls / (double) count));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Excludes from the component scan the configurations of the tests, as the test context of Spring Boot does
+     */
+    static class TestClassesExcludeFilter extends TypeExcludeFilter {
+        @Override
+        public boolean match(MetadataReader metadataReader, MetadataReaderFactory metadataReaderFactory) {
+            String enclosing = metadataReader.getClassMetadata().getEnclosingClassName();
+            return metadataReader.getAnnotationMetadata().hasAnnotation(TestConfiguration.class.getName())
+                    || (enclosing != null && (enclosing.endsWith("Test") || enclosing.endsWith("Tests")));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long seed = Long.getLong("load.seed", 1);
+        String target = System.getProperty("load.target");
+        FakeUpstreamServer upstream = null;
+        ConfigurableApplicationContext application = null;
+        List<String> airports;
+        if (target == null) {
+            SyntheticNetwork network = new SyntheticNetwork(Long.getLong("fake.seed", 1),
+                    Integer.getInteger("fake.airports", 200), Integer.getInteger("fake.mean-degree", 10),
+                    Double.parseDouble(System.getProperty("fake.skew", "1.0")), Integer.getInteger("fake.flights-per-day", 3));
+            upstream = new FakeUpstreamServer(network, Duration.ofMillis(Long.getLong("fake.latency-ms", 50)),
+                    Double.parseDouble(System.getProperty("fake.error-rate", "0")), seed).start(0);
+            SpringApplication springApplication = new SpringApplication(RestfulWebServicesApplication.class);
+            // the test classes are in the classpath, their configurations must not be scanned
+            springApplication.addInitializers(context -> context.getBeanFactory()
+                    .registerSingleton("testClassesExcludeFilter", new TestClassesExcludeFilter()));
+            application = springApplication.run("--server.port=0", "--flights.snapshot.file=", "--flights.crawler.enabled=false",
+                    "--spring.devtools.restart.enabled=false", "--logging.level.com.rest.webservices=WARN",
+                    "--flights.upstream.routes-base-url=" + upstream.getBaseUrl(),
+                    "--flights.upstream.schedules-base-url=" + upstream.getBaseUrl());
+            target = "http://localhost:" + application.getEnvironment().getProperty("local.server.port") + "/flights";
+            airports = network.getAirports();
+        } else {
+            airports = new SyntheticNetwork(Long.getLong("fake.seed", 1), Integer.getInteger("fake.airports", 200),
+                    1, 1.0, 1).getAirports();
+        }
+
+        int threads = Integer.getInteger("load.threads", 200);
+        LoadTest loadTest = new LoadTest(seed, Double.parseDouble(System.getProperty("load.popular", "0.8")),
+                Double.parseDouble(System.getProperty("load.narrow", "0.7")), Integer.getInteger("load.max-stops", 1),
+                new ArrayList<>(airports));
+        Duration duration = Duration.ofSeconds(Long.getLong("load.duration", 60));
+        FakeUpstreamServer fakeUpstream = upstream;
+        long[] upstreamCallsAtWarm = {0};
+        boolean complete;
+        try (CloseableHttpClient httpClient = HttpClients.custom().setMaxConnTotal(threads).setMaxConnPerRoute(threads).build()) {
+            complete = loadTest.run(httpClient, target, Integer.getInteger("load.rate", 50),
+                    Duration.ofSeconds(Long.getLong("load.warmup", 10)), duration, Executors.newFixedThreadPool(threads),
+                    () -> upstreamCallsAtWarm[0] = fakeUpstream == null ? 0 :
+                            fakeUpstream.getRoutesRequests() + fakeUpstream.getSchedulesRequests());
+            long upstreamCalls = fakeUpstream == null ? -1 :
+                    fakeUpstream.getRoutesRequests() + fakeUpstream.getSchedulesRequests() - upstreamCallsAtWarm[0];
+            if (!complete) {
+                System.out.println(String.format("INCOMPLETE RUN: %d requests not answered within %ds, the results "
+                        + "below are not valid", loadTest.getInFlight(), DRAIN_TIMEOUT.getSeconds()));
+            }
+            loadTest.report(System.out, duration, upstreamCalls, System.getProperty("load.histogram-file"));
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (upstream != null) {
+                upstream.stop();
+            }
+        }
+        if (!complete) {
+            System.exit(1);
+        }
+    }
+}
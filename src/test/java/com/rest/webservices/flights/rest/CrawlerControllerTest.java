@@ -0,0 +1,43 @@
+package com.rest.webservices.flights.rest;
+
+import com.rest.webservices.flights.model.CrawlerStatus;
+import com.rest.webservices.flights.services.CrawlerService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDateTime;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@ContextConfiguration(classes = {CrawlerController.class})
+@WebMvcTest
+class CrawlerControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private CrawlerService crawlerService;
+
+    @Test
+    void getStatus_status_OK() throws Exception {
+        given(crawlerService.getStatus())
+                .willReturn(new CrawlerStatus(true, LocalDateTime.of(2020, 9, 11, 5, 0), null, 10, 4, 3, 5, 1));
+
+        mockMvc.perform(get("/crawler"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.running", is(true)))
+                .andExpect(jsonPath("$.routes", is(10)))
+                .andExpect(jsonPath("$.routesCovered", is(4)))
+                .andExpect(jsonPath("$.monthsFresh", is(3)))
+                .andExpect(jsonPath("$.monthsFetched", is(5)))
+                .andExpect(jsonPath("$.errors", is(1)));
+    }
+}
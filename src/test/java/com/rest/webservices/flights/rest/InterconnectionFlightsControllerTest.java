@@ -11,15 +11,24 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.util.NestedServletException;
+
+import javax.validation.ConstraintViolationException;
 
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.mockito.BDDMockito.given;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
 
 import static org.hamcrest.CoreMatchers.is;
 
@@ -40,21 +49,29 @@ class InterconnectionFlightsControllerTest {
     @MockBean
     private InterconnectionService interconnectionService;
 
+    /**
+     * The search of the interconnections passes them to the consumer and returns stale
+     */
+    private void givenSearch(int maxStops, boolean optimal, boolean stale, Interconnection... interconnections) {
+        doAnswer(invocation -> {
+            Consumer<Interconnection> consumer = invocation.getArgument(6);
+            Arrays.asList(interconnections).forEach(consumer);
+            return stale;
+        }).when(interconnectionService).searchFlights(eq("WRO"), eq(departureDateTime), eq("VGO"), eq(arrivalDateTime),
+                eq(maxStops), eq(optimal), any());
+    }
+
     @Test
     void getFlights_status_OK() throws Exception {
 
-        given(interconnectionService.getFlights("WRO", departureDateTime, "VGO", arrivalDateTime, 1))
-                .willReturn(
+        givenSearch(1, false, false,
+                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))),
+                new Interconnection(1,
                         Arrays.asList(
-                                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))),
-                                new Interconnection(1,
-                                        Arrays.asList(
-                                                new Flight("1", "WRO", "LON", departureDateTime, departureDateTime.plusHours(2)),
-                                                new Flight("1", "LON", "WRO", departureDateTime.plusDays(1), departureDateTime.plusDays(1).plusHours(2))
-                                        ))
-
-                        )
-                );
+                                new Flight("1", "WRO", "LON", departureDateTime, departureDateTime.plusHours(2)),
+                                new Flight("1", "LON", "WRO", departureDateTime.plusDays(1), departureDateTime.plusDays(1).plusHours(2))
+                        ))
+        );
 
         mockMvc.perform(get(INTERCONNECTIONS_URI, "WRO", "VGO", departureDateTimeS, arrivalDateTimeS))
                 .andExpect(status().isOk())
@@ -68,10 +85,78 @@ class InterconnectionFlightsControllerTest {
                 .andExpect(jsonPath("$[0].legs[0].arrivalDateTime", is(arrivalDateTimeS)))
                 .andExpect(jsonPath("$[1].stops", is(1)))
                 .andExpect(jsonPath("$[1].legs.length()", is(2)))
+                .andExpect(header().doesNotExist("Warning"))
         ;
 
     }
 
+    @Test
+    void getFlights_anyAccept() throws Exception {
+        givenSearch(1, false, false,
+                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))));
+
+        // only application/x-ndjson goes to the streaming search
+        mockMvc.perform(get(INTERCONNECTIONS_URI, "WRO", "VGO", departureDateTimeS, arrivalDateTimeS)
+                .accept("text/html, */*;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()", is(1)));
+    }
+
+    @Test
+    void getFlights_stale() throws Exception {
+        givenSearch(1, false, true,
+                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))));
+
+        mockMvc.perform(get(INTERCONNECTIONS_URI, "WRO", "VGO", departureDateTimeS, arrivalDateTimeS))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Warning", "110 - \"Response is Stale\""))
+                .andExpect(jsonPath("$.length()", is(1)));
+    }
+
+    @Test
+    void streamFlights_status_OK() throws Exception {
+        givenSearch(1, false, false,
+                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))),
+                new Interconnection(1, Collections.emptyList()));
+
+        MvcResult result = mockMvc
+                .perform(get(INTERCONNECTIONS_URI, "WRO", "VGO", departureDateTimeS, arrivalDateTimeS).accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                // the search may use stale timetables once the headers are written
+                .andExpect(header().string("Trailer", "Warning"))
+                .andExpect(header().doesNotExist("Warning"));
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+        assertThat(lines.length, is(2));
+        assertThat(lines[0], is("{\"stops\":0,\"legs\":[{\"departureAirport\":\"WRO\",\"arrivalAirport\":\"VGO\","
+                + "\"departureDateTime\":\"" + departureDateTimeS + "\",\"arrivalDateTime\":\"" + arrivalDateTimeS + "\"}]}"));
+        assertThat(lines[1], is("{\"stops\":1,\"legs\":[]}"));
+    }
+
+    @Test
+    void getFlights_maxStops_optimal() throws Exception {
+        givenSearch(3, true, false,
+                new Interconnection(0, Arrays.asList(new Flight("1", "WRO", "VGO", departureDateTime, arrivalDateTime))));
+
+        mockMvc.perform(get(INTERCONNECTIONS_URI + "&maxStops=3&optimal=true", "WRO", "VGO", departureDateTimeS, arrivalDateTimeS))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()", is(1)));
+    }
+
+    @Test
+    void getFlights_invalid_maxStops() {
+        // ConstraintViolationException is translated into a bad request by ExceptionHelper
+        NestedServletException ex = assertThrows(NestedServletException.class, () -> mockMvc
+                .perform(get(INTERCONNECTIONS_URI + "&maxStops=4", "WRO", "VGO", departureDateTimeS, arrivalDateTimeS)));
+        assertThat(ex.getCause(), instanceOf(ConstraintViolationException.class));
+        assertThat(ex.getCause().getMessage(), is("interconnections.maxStops: Invalid maxStops"));
+    }
+
     @Test
     void getFlights_bad_request_required_departure() throws Exception {
         MvcResult result = mockMvc
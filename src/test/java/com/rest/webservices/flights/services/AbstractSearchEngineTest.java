@@ -0,0 +1,162 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import com.rest.webservices.flights.model.Timetable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Network, timetables and tests shared by the search engines with connections, each engine test class runs them
+ * through {@link #getConnectionsFlights}
+ */
+@ExtendWith(MockitoExtension.class)
+abstract class AbstractSearchEngineTest {
+
+    static final int TIME_BETWEEN_STOPS_IN_HOURS = 2;
+
+    @Mock
+    ScheduleFlightsService scheduleFlightsService;
+
+    final LocalDateTime departureDate = LocalDateTime.of(2019, 5, 6, 0, 0);
+    final LocalDateTime arrivalDate = LocalDateTime.of(2019, 5, 8, 0, 0);
+    final List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
+    List<Flight> flights;
+
+    /**
+     * Search MAD to TNF between departureDate and arrivalDate in months with the engine under test
+     */
+    abstract List<List<Flight>> getConnectionsFlights(RouteGraph routes, String arrival, int numMaxStops,
+                                                      boolean optimal);
+
+    @BeforeEach
+    void setUp() {
+        flights = Arrays.asList(
+                flight("1", "MAD", "BCN", 6, 8, 0, 9, 30),
+                flight("2", "MAD", "ALC", 6, 10, 0, 11, 0),
+                flight("3", "MAD", "ALC", 6, 15, 0, 16, 0),
+                flight("4", "ALC", "TNF", 6, 12, 30, 15, 0),
+                flight("5", "ALC", "TNF", 6, 18, 0, 20, 30),
+                flight("6", "BCN", "TNF", 6, 11, 0, 14, 0),
+                flight("7", "BCN", "TNF", 6, 11, 30, 14, 30),
+                flight("8", "BCN", "TNF", 6, 16, 0, 19, 0),
+                flight("9", "MAD", "TNF", 6, 9, 0, 12, 0),
+                flight("10", "BCN", "ALC", 6, 12, 0, 13, 0)
+        );
+    }
+
+    void mockScheduledFlights() {
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(anyString(), anyString(), any(), any()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(Optional.of(new Timetable(
+                        invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), flights
+                        .stream()
+                        .filter(f -> f.getDepartureAirport().equals(invocation.getArgument(0))
+                                && f.getArrivalAirport().equals(invocation.getArgument(1)))
+                        .sorted(Comparator.comparing(Flight::getDepartureDateTime))
+                        .collect(Collectors.toList())))));
+    }
+
+    @Test
+    void getConnectionsFlights_oneStop() {
+        mockScheduledFlights();
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "TNF", 1, false);
+
+        // same itineraries and order than the tree search: routes by hub, then by departure of each leg
+        assertThat(numbers(itineraries), contains(
+                Arrays.asList("1", "7"),
+                Arrays.asList("1", "8"),
+                Arrays.asList("2", "5"),
+                Arrays.asList("3", "5")));
+    }
+
+    @Test
+    void getConnectionsFlights_twoStops() {
+        flights = new ArrayList<>(flights);
+        flights.add(flight("11", "ALC", "TNF", 6, 15, 0, 17, 0));
+        mockScheduledFlights();
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "TNF", 2, false);
+
+        assertThat(numbers(itineraries), contains(
+                Arrays.asList("1", "7"),
+                Arrays.asList("1", "8"),
+                Arrays.asList("2", "11"),
+                Arrays.asList("2", "5"),
+                Arrays.asList("3", "5"),
+                Arrays.asList("1", "10", "11"),
+                Arrays.asList("1", "10", "5")));
+    }
+
+    @Test
+    void getConnectionsFlights_orderOfTheDestinations() {
+        flights = new ArrayList<>(flights);
+        flights.add(flight("11", "ALC", "TNF", 6, 15, 0, 17, 0));
+        mockScheduledFlights();
+        // ALC and TNF get lower ids than BCN, but BCN is the first destination of MAD and TNF the first one of BCN
+        RouteGraph routes = new RouteGraph.Builder()
+                .addRoute("ALC", "TNF")
+                .addRoute("MAD", "BCN")
+                .addRoute("MAD", "ALC")
+                .addRoute("MAD", "TNF")
+                .addRoute("BCN", "TNF")
+                .addRoute("BCN", "ALC")
+                .build();
+        List<List<Flight>> itineraries = getConnectionsFlights(routes, "TNF", 2, false);
+
+        assertThat(numbers(itineraries), contains(
+                Arrays.asList("1", "7"),
+                Arrays.asList("1", "8"),
+                Arrays.asList("2", "11"),
+                Arrays.asList("2", "5"),
+                Arrays.asList("3", "5"),
+                Arrays.asList("1", "10", "11"),
+                Arrays.asList("1", "10", "5")));
+    }
+
+    @Test
+    void getConnectionsFlights_unknownAirport() {
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "XXX", 1, false);
+        assertThat(itineraries, is(empty()));
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(any(), any(), any(), any());
+    }
+
+    List<List<String>> numbers(List<List<Flight>> itineraries) {
+        return itineraries
+                .stream()
+                .map(legs -> legs.stream().map(Flight::getNumber).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    RouteGraph getRoutes() {
+        return new RouteGraph.Builder()
+                .addRoute("MAD", "BCN")
+                .addRoute("MAD", "ALC")
+                .addRoute("MAD", "TNF")
+                .addRoute("BCN", "TNF")
+                .addRoute("BCN", "ALC")
+                .addRoute("ALC", "TNF")
+                .build();
+    }
+
+    Flight flight(String number, String from, String to, int day, int departureHour, int departureMinute,
+                  int arrivalHour, int arrivalMinute) {
+        return new Flight(number, from, to,
+                LocalDateTime.of(2019, 5, day, departureHour, departureMinute),
+                LocalDateTime.of(2019, 5, day, arrivalHour, arrivalMinute));
+    }
+}
@@ -0,0 +1,34 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+
+class ConnectionScanServiceTest extends AbstractSearchEngineTest {
+
+    @InjectMocks
+    private ConnectionScanService connectionScanService;
+
+    @Override
+    List<List<Flight>> getConnectionsFlights(RouteGraph routes, String arrival, int numMaxStops, boolean optimal) {
+        return connectionScanService.getConnectionsFlights(routes, months,
+                "MAD", departureDate, arrival, arrivalDate, numMaxStops, TIME_BETWEEN_STOPS_IN_HOURS, optimal,
+                new ScheduleLookup(scheduleFlightsService));
+    }
+
+    @Test
+    void getConnectionsFlights_optimal() {
+        mockScheduledFlights();
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "TNF", 1, true);
+
+        // MAD->TNF direct departs later and arrives earlier than MAD->BCN->TNF
+        assertThat(numbers(itineraries), contains(Arrays.asList("3", "5")));
+    }
+}
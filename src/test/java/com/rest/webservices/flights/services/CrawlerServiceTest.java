@@ -0,0 +1,103 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.integration.RyanairApiService;
+import com.rest.webservices.flights.model.CrawlerStatus;
+import com.rest.webservices.flights.model.RouteGraph;
+import com.rest.webservices.flights.model.Timetable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CrawlerServiceTest {
+
+    @Mock
+    private RouteService routeService;
+
+    @Mock
+    private ScheduleFlightsService scheduleFlightsService;
+
+    @Mock
+    private RyanairApiService ryanairApiService;
+
+    @InjectMocks
+    private CrawlerService crawlerService;
+
+    private final YearMonth thisMonth = YearMonth.now();
+    private final YearMonth nextMonth = YearMonth.now().plusMonths(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(crawlerService, "months", 2);
+        ReflectionTestUtils.setField(crawlerService, "callsPerMinute", Integer.MAX_VALUE);
+        ReflectionTestUtils.setField(crawlerService, "circuitCheckInterval", 1L);
+    }
+
+    @Test
+    void crawl() {
+        when(routeService.getAllAvailableRoutes())
+                .thenReturn(new RouteGraph.Builder().addRoute("MAD", "BCN").addRoute("BCN", "DUB").build());
+        // MAD-BCN this month is fresh, BCN-DUB next month fails
+        when(scheduleFlightsService.isCached(any(), any(), any()))
+                .thenReturn(true, false, true, false, true, false, false);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new Timetable("MAD", "BCN", nextMonth, Collections.emptyList()))));
+
+        crawlerService.crawl();
+
+        CrawlerStatus status = crawlerService.getStatus();
+        assertThat(status.isRunning(), is(false));
+        assertThat(status.getFinished(), is(notNullValue()));
+        assertThat(status.getRoutes(), is(2));
+        assertThat(status.getRoutesCovered(), is(2));
+        assertThat(status.getMonthsFresh(), is(1));
+        assertThat(status.getMonthsFetched(), is(2));
+        assertThat(status.getErrors(), is(1));
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync("MAD", "BCN", thisMonth);
+        verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "BCN", nextMonth);
+        verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("BCN", "DUB", thisMonth);
+        verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("BCN", "DUB", nextMonth);
+    }
+
+    @Test
+    void crawl_pausedWhileCircuitOpen() {
+        when(routeService.getAllAvailableRoutes()).thenReturn(new RouteGraph.Builder().addRoute("MAD", "BCN").build());
+        ReflectionTestUtils.setField(crawlerService, "months", 1);
+        when(ryanairApiService.isSchedulesCircuitOpen()).thenReturn(true, true, true, false);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        crawlerService.crawl();
+
+        // nothing requested until the circuit is not open anymore
+        InOrder inOrder = inOrder(ryanairApiService, scheduleFlightsService);
+        inOrder.verify(ryanairApiService, times(4)).isSchedulesCircuitOpen();
+        inOrder.verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "BCN", thisMonth);
+    }
+
+    @Test
+    void crawl_disabled() {
+        ReflectionTestUtils.setField(crawlerService, "enabled", false);
+
+        crawlerService.crawl();
+
+        assertThat(crawlerService.getStatus().getStarted(), is(nullValue()));
+        verify(routeService, never()).getAllAvailableRoutes();
+    }
+}
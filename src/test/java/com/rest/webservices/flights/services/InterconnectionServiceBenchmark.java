@@ -0,0 +1,57 @@
+package com.rest.webservices.flights.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search between the two biggest hubs with {@link InterconnectionService#searchFlights} and each engine, direct
+ * flights included (0 stops only searches them). TREE only serves up to one stop, the searches with more stops are
+ * served by ROUND_BASED, so TREE with 2 stops fails in the setup instead of measuring ROUND_BASED under its name.
+ * The timetables come from the cache and everything runs in the calling thread, so only the search and the itinerary
+ * construction are measured
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterconnectionServiceBenchmark {
+
+    @Param({"TREE", "CONNECTION_SCAN", "ROUND_BASED"})
+    public SearchEngine engine;
+
+    @Param({"0", "1", "2"})
+    public int stops;
+
+    private final InterconnectionService interconnectionService = new InterconnectionService();
+
+    @Setup(Level.Trial)
+    public void setUp(NetworkState state) {
+        if (engine == SearchEngine.TREE && stops > 1) {
+            throw new IllegalStateException("TREE does not serve more than one stop, measured by ROUND_BASED");
+        }
+        ConnectionScanService connectionScanService = new ConnectionScanService();
+        RoundBasedSearchService roundBasedSearchService = new RoundBasedSearchService();
+        ReflectionTestUtils.setField(interconnectionService, "scheduleFlightsService", state.scheduleFlightsService);
+        ReflectionTestUtils.setField(interconnectionService, "routeService", state.routeService);
+        ReflectionTestUtils.setField(interconnectionService, "connectionScanService", connectionScanService);
+        ReflectionTestUtils.setField(interconnectionService, "roundBasedSearchService", roundBasedSearchService);
+        ReflectionTestUtils.setField(interconnectionService, "searchExecutor", (Executor) Runnable::run);
+        ReflectionTestUtils.setField(interconnectionService, "searchEngine", engine);
+    }
+
+    /**
+     * @return interconnections found
+     */
+    @Benchmark
+    public int searchFlights(NetworkState state) {
+        int[] interconnections = new int[1];
+        interconnectionService.searchFlights(state.from, state.departureDateTime, state.to, state.arrivalDateTime,
+                stops, false, interconnection -> interconnections[0]++);
+        return interconnections[0];
+    }
+}
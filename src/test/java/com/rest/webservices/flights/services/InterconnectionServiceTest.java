@@ -3,6 +3,8 @@ package com.rest.webservices.flights.services;
 import com.rest.webservices.flights.exception.InvalidInputException;
 import com.rest.webservices.flights.model.Flight;
 import com.rest.webservices.flights.model.Interconnection;
+import com.rest.webservices.flights.model.RouteGraph;
+import com.rest.webservices.flights.model.Timetable;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,10 +16,13 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -35,6 +40,12 @@ class InterconnectionServiceTest {
     @Mock
     private RouteService routeService;
 
+    @Mock
+    private ConnectionScanService connectionScanService;
+
+    @Mock
+    private RoundBasedSearchService roundBasedSearchService;
+
     @InjectMocks
     @Spy
     private InterconnectionService interconnectionService;
@@ -51,6 +62,7 @@ class InterconnectionServiceTest {
 
     @BeforeEach
     void setUp() {
+        ReflectionTestUtils.setField(interconnectionService, "searchExecutor", (Executor) Runnable::run);
     }
 
     @ParameterizedTest
@@ -65,7 +77,7 @@ class InterconnectionServiceTest {
 
     @ParameterizedTest
     @MethodSource("getFlights_noRoutesFoundParameters")
-    void getFlights_noRoutesFound(String testCase, Map<String, List<String>> routes) throws Exception {
+    void getFlights_noRoutesFound(String testCase, RouteGraph routes) throws Exception {
         when(routeService.getAllAvailableRoutes()).thenReturn(routes);
         List<Interconnection> interconnections = interconnectionService
                 .getFlights("MAD", departureDate, "BCN", arrivalDate, 1);
@@ -82,18 +94,18 @@ class InterconnectionServiceTest {
         ));
 
         verify(routeService).getAllAvailableRoutes();
-        verify(scheduleFlightsService, never()).getScheduledFlights(any(), any(), any(), any(), any());
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(any(), any(), any(), any());
     }
 
     @Test
     void getFlights_onlyDirectFlights() throws Exception {
         LocalDateTime departureDate = LocalDateTime.of(2019, 5, 6, 14, 30);
         LocalDateTime arrivalDate = LocalDateTime.of(2019, 5, 6, 18, 30);
+        RouteGraph routes = getRoutes();
 
-        when(routeService.getAllAvailableRoutes()).thenReturn(getRoutes());
-        when(scheduleFlightsService.getScheduledFlights(any(), any(), any(), any(), any()))
-                .thenReturn(
-                        Arrays.asList(new
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any(), any()))
+                .thenReturn(timetable("MAD", "ALC", YearMonth.of(2019, 5), new
                                 Flight("1",
                                 "MAD",
                                 "ALC",
@@ -121,14 +133,14 @@ class InterconnectionServiceTest {
                 )
         ));
         verify(routeService, times(1)).getAllAvailableRoutes();
-        verify(routeService, times(1)).getRoutesWithConnections(getRoutes(), "MAD", "ALC", 1);
-        verify(scheduleFlightsService, atMostOnce()).getScheduledFlights(any(), any(), any(), any(), any());
-        verify(interconnectionService, never()).getAllConnectionsFlightsOfARoute(any(), any(), any(), any());
+        verify(routeService, times(1)).getRoutesWithConnections(routes, "MAD", "ALC", 1);
+        verify(scheduleFlightsService, atMostOnce()).getScheduledFlightsByMonthAsync(any(), any(), any(), any());
+        verify(interconnectionService, never()).getAllConnectionsFlightsOfARoute(any(), any(), any(), any(), any());
     }
 
     @Test
     void getFlights_onlyFlightsWithConnexion() throws Exception {
-        Map routes = getRoutes();
+        RouteGraph routes = getRoutes();
         LocalDateTime MAD_BCN_DepartureDate = LocalDateTime.of(2019, 5, 6, 14, 30);
         LocalDateTime MAD_BCN_ArrivalDate = LocalDateTime.of(2019, 5, 6, 18, 30);
 
@@ -148,49 +160,19 @@ class InterconnectionServiceTest {
 
         List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
 
-        when(scheduleFlightsService.getScheduledFlights("MAD", "BCN", months,
-                departureDate, arrivalDate))
-                .thenReturn(
-                        Arrays.asList(new Flight(
-                                "1",
-                                "MAD",
-                                "BCN",
-                                MAD_BCN_DepartureDate,
-                                MAD_BCN_ArrivalDate
-                        )));
-
-        when(scheduleFlightsService.getScheduledFlights("BCN", "TNF", months,
-                MAD_BCN_ArrivalDate.plusHours(2), arrivalDate))
-                .thenReturn(Collections.EMPTY_LIST);
-
-        when(scheduleFlightsService.getScheduledFlights("MAD", "ALC", months,
-                departureDate, arrivalDate))
-                .thenReturn(
-                        Arrays.asList(new Flight(
-                                "2", "MAD",
-                                "ALC",
-                                MAD_ALC_DepartureDate,
-                                MAD_ALC_ArrivalDate
-                        )));
-        when(scheduleFlightsService.getScheduledFlights("ALC", "TNF", months,
-                MAD_ALC_ArrivalDate.plusHours(2), arrivalDate))
-                .thenReturn(
-                        Arrays.asList(
-                                new Flight(
-                                        "2",
-                                        "ALC",
-                                        "TNF",
-                                        ALC_TNF_DepartureDate1,
-                                        ALC_TNF_ArrivalDate1
-                                ),
-                                new Flight(
-                                        "2",
-                                        "ALC",
-                                        "TNF",
-                                        ALC_TNF_DepartureDate2,
-                                        ALC_TNF_ArrivalDate2
-                                )
-                        ));
+        YearMonth may = YearMonth.of(2019, 5);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("BCN"), eq(may), any()))
+                .thenReturn(timetable("MAD", "BCN", may,
+                        new Flight("1", "MAD", "BCN", MAD_BCN_DepartureDate, MAD_BCN_ArrivalDate)));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("BCN"), eq("TNF"), eq(may), any()))
+                .thenReturn(timetable("BCN", "TNF", may));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("ALC"), eq(may), any()))
+                .thenReturn(timetable("MAD", "ALC", may,
+                        new Flight("2", "MAD", "ALC", MAD_ALC_DepartureDate, MAD_ALC_ArrivalDate)));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("ALC"), eq("TNF"), eq(may), any()))
+                .thenReturn(timetable("ALC", "TNF", may,
+                        new Flight("2", "ALC", "TNF", ALC_TNF_DepartureDate1, ALC_TNF_ArrivalDate1),
+                        new Flight("2", "ALC", "TNF", ALC_TNF_DepartureDate2, ALC_TNF_ArrivalDate2)));
 
         List<Interconnection> interconnections = interconnectionService
                 .getFlights("MAD", departureDate, "TNF", arrivalDate, 1);
@@ -234,23 +216,189 @@ class InterconnectionServiceTest {
         ));
         verify(routeService, times(1)).getAllAvailableRoutes();
         verify(routeService, times(1)).getRoutesWithConnections(routes, "MAD", "TNF", 1);
-        verify(scheduleFlightsService, times(4)).getScheduledFlights(any(), any(), any(), any(), any());
-        verify(interconnectionService, times(2)).getAllConnectionsFlightsOfARoute(any(), any(), any(), any());
+        verify(scheduleFlightsService, times(4)).getScheduledFlightsByMonthAsync(any(), any(), any(), any());
+        verify(interconnectionService, times(2)).getAllConnectionsFlightsOfARoute(any(), any(), any(), any(), any());
+
+    }
+
+    @Test
+    void getFlights_connectionsLookedUpOncePerSearch() throws Exception {
+        RouteGraph routes = getRoutes();
+        YearMonth may = YearMonth.of(2019, 5);
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(routeService.getRoutesWithConnections(routes, "MAD", "TNF", 1))
+                .thenReturn(Arrays.asList(Arrays.asList("MAD", "DUB", "TNF")));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any()))
+                .thenReturn(timetable("MAD", "DUB", may,
+                        new Flight("1", "MAD", "DUB", LocalDateTime.of(2019, 5, 6, 13, 0), LocalDateTime.of(2019, 5, 6, 15, 0)),
+                        new Flight("2", "MAD", "DUB", LocalDateTime.of(2019, 5, 6, 16, 0), LocalDateTime.of(2019, 5, 6, 18, 0)),
+                        new Flight("3", "MAD", "DUB", LocalDateTime.of(2019, 5, 7, 13, 0), LocalDateTime.of(2019, 5, 7, 15, 0))));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("DUB"), eq("TNF"), eq(may), any()))
+                .thenReturn(timetable("DUB", "TNF", may,
+                        new Flight("4", "DUB", "TNF", LocalDateTime.of(2019, 5, 8, 10, 0), LocalDateTime.of(2019, 5, 8, 14, 0))));
+
+        List<Interconnection> interconnections = interconnectionService
+                .getFlights("MAD", departureDate, "TNF", arrivalDate, 1);
+
+        assertThat(interconnections, hasSize(4));
+        assertThat(interconnections.stream().filter(i -> i.getStops() == 1).count(), is(3L));
+        // DUB-TNF is only requested once for the three first leg flights
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(eq("DUB"), eq("TNF"), eq(may), any());
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any());
+    }
+
+    @Test
+    void getFlights_connectionScanEngine() throws Exception {
+        ReflectionTestUtils.setField(interconnectionService, "searchEngine", SearchEngine.CONNECTION_SCAN);
+        RouteGraph routes = getRoutes();
+        List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
+        List<Flight> legs = Arrays.asList(
+                new Flight("1", "MAD", "DUB", departureDate, departureDate.plusHours(2)),
+                new Flight("2", "DUB", "TNF", departureDate.plusHours(5), departureDate.plusHours(8)));
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(connectionScanService.getConnectionsFlights(eq(routes), eq(months), eq("MAD"), eq(departureDate), eq("TNF"), eq(arrivalDate),
+                eq(1), eq(2), eq(false), any()))
+                .thenReturn(Arrays.asList(legs));
+
+        List<Interconnection> interconnections = interconnectionService
+                .getFlights("MAD", departureDate, "TNF", arrivalDate, 1);
+
+        assertThat(interconnections, hasSize(2));
+        assertThat(interconnections.get(0), allOf(hasProperty("stops", is(0)), hasProperty("legs", is(empty()))));
+        assertThat(interconnections.get(1), allOf(hasProperty("stops", is(1)), hasProperty("legs", is(legs))));
+        verify(routeService, never()).getRoutesWithConnections(any(), any(), any(), anyInt());
+        verify(interconnectionService, never()).getAllConnectionsFlightsOfARoute(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getFlights_moreThanOneStopUsesRoundBasedEngine() throws Exception {
+        RouteGraph routes = getRoutes();
+        List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
+        List<Flight> legs = Arrays.asList(
+                new Flight("1", "MAD", "ALC", departureDate, departureDate.plusHours(1)),
+                new Flight("2", "ALC", "DUB", departureDate.plusHours(4), departureDate.plusHours(6)),
+                new Flight("3", "DUB", "TNF", departureDate.plusHours(9), departureDate.plusHours(12)));
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(roundBasedSearchService.getConnectionsFlights(eq(routes), eq(months), eq("MAD"), eq(departureDate), eq("TNF"), eq(arrivalDate),
+                eq(2), eq(2), eq(false), any()))
+                .thenReturn(Arrays.asList(legs));
 
+        List<Interconnection> interconnections = interconnectionService
+                .getFlights("MAD", departureDate, "TNF", arrivalDate, 2);
+
+        assertThat(interconnections, hasSize(3));
+        assertThat(interconnections.get(0), allOf(hasProperty("stops", is(0)), hasProperty("legs", is(empty()))));
+        assertThat(interconnections.get(1), allOf(hasProperty("stops", is(1)), hasProperty("legs", is(empty()))));
+        assertThat(interconnections.get(2), allOf(hasProperty("stops", is(2)), hasProperty("legs", is(legs))));
+        verify(routeService, never()).getRoutesWithConnections(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void getFlights_optimal() throws Exception {
+        ReflectionTestUtils.setField(interconnectionService, "searchEngine", SearchEngine.CONNECTION_SCAN);
+        RouteGraph routes = new RouteGraph.Builder()
+                .addRoute("MAD", "TNF")
+                .addRoute("MAD", "DUB")
+                .addRoute("DUB", "TNF")
+                .addRoute("MAD", "ALC")
+                .addRoute("ALC", "TNF")
+                .build();
+        List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
+        Flight direct = new Flight("1", "MAD", "TNF", departureDate.plusHours(1), departureDate.plusHours(4));
+        List<Flight> dominated = Arrays.asList(
+                new Flight("2", "MAD", "DUB", departureDate, departureDate.plusHours(2)),
+                new Flight("3", "DUB", "TNF", departureDate.plusHours(4), departureDate.plusHours(7)));
+        List<Flight> optimal = Arrays.asList(
+                new Flight("4", "MAD", "ALC", departureDate.plusHours(2), departureDate.plusHours(3)),
+                new Flight("5", "ALC", "TNF", departureDate.plusHours(5), departureDate.plusHours(6)));
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("TNF"), eq(YearMonth.of(2019, 5)), any()))
+                .thenReturn(timetable("MAD", "TNF", YearMonth.of(2019, 5), direct));
+        when(connectionScanService.getConnectionsFlights(eq(routes), eq(months), eq("MAD"), eq(departureDate), eq("TNF"), eq(arrivalDate),
+                eq(1), eq(2), eq(true), any()))
+                .thenReturn(Arrays.asList(dominated, optimal));
+
+        List<Interconnection> interconnections = interconnectionService
+                .getFlights("MAD", departureDate, "TNF", arrivalDate, 1, true);
+
+        assertThat(interconnections, hasSize(2));
+        assertThat(interconnections.get(0), allOf(hasProperty("stops", is(0)),
+                hasProperty("legs", contains(hasProperty("number", is(direct.getNumber()))))));
+        assertThat(interconnections.get(1), allOf(hasProperty("stops", is(1)), hasProperty("legs", is(optimal))));
+    }
+
+    @Test
+    void getFlights_optimalUsesRoundBasedEngine() throws Exception {
+        RouteGraph routes = getRoutes();
+        List<YearMonth> months = Arrays.asList(YearMonth.of(2019, 5));
+        List<Flight> legs = Arrays.asList(
+                new Flight("1", "MAD", "DUB", departureDate, departureDate.plusHours(2)),
+                new Flight("2", "DUB", "TNF", departureDate.plusHours(5), departureDate.plusHours(8)));
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(roundBasedSearchService.getConnectionsFlights(eq(routes), eq(months), eq("MAD"), eq(departureDate), eq("TNF"), eq(arrivalDate),
+                eq(1), eq(2), eq(true), any()))
+                .thenReturn(Arrays.asList(legs));
+
+        List<Interconnection> interconnections = interconnectionService
+                .getFlights("MAD", departureDate, "TNF", arrivalDate, 1, true);
+
+        assertThat(interconnections, hasSize(2));
+        assertThat(interconnections.get(1), allOf(hasProperty("stops", is(1)), hasProperty("legs", is(legs))));
+        verify(routeService, never()).getRoutesWithConnections(any(), any(), any(), anyInt());
+        verify(interconnectionService, never()).getAllConnectionsFlightsOfARoute(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void searchFlights_stale() {
+        RouteGraph routes = getRoutes();
+        YearMonth may = YearMonth.of(2019, 5);
+        when(routeService.getAllAvailableRoutes()).thenReturn(routes);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any()))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(3, Runnable.class).run();
+                    return timetable("MAD", "DUB", may);
+                });
+
+        assertThat(interconnectionService.searchFlights("MAD", departureDate, "DUB", arrivalDate, 0, false, i -> {}), is(true));
+    }
+
+    @Test
+    void searchFlights_staleRoutes() {
+        when(routeService.getAllAvailableRoutes()).thenReturn(getRoutes());
+        when(routeService.isStale()).thenReturn(true);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any(), any()))
+                .thenReturn(timetable("MAD", "DUB", YearMonth.of(2019, 5)));
+
+        assertThat(interconnectionService.searchFlights("MAD", departureDate, "DUB", arrivalDate, 0, false, i -> {}), is(true));
+    }
+
+    @Test
+    void searchFlights_fresh() {
+        when(routeService.getAllAvailableRoutes()).thenReturn(getRoutes());
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any(), any()))
+                .thenReturn(timetable("MAD", "DUB", YearMonth.of(2019, 5)));
+
+        assertThat(interconnectionService.searchFlights("MAD", departureDate, "DUB", arrivalDate, 0, false, i -> {}), is(false));
     }
 
     static Stream<Arguments> getFlights_noRoutesFoundParameters() {
         return Stream.of(
-                Arguments.arguments("There is not routes", Collections.EMPTY_MAP),
+                Arguments.arguments("There is not routes", RouteGraph.EMPTY),
                 Arguments.arguments("There is not routes for MAD->BCN", getRoutes())
         );
     }
 
-    private static Map<String, List<String>> getRoutes() {
-        Map<String, List<String>> routes = new HashMap();
-        routes.put("MAD", Arrays.asList("ALC", "DUB"));
-        routes.put("DUB", Arrays.asList("TNF"));
-        return routes;
+    private static CompletableFuture<Optional<Timetable>> timetable(String departure, String arrival, YearMonth yearMonth,
+                                                                    Flight... flights) {
+        return CompletableFuture.completedFuture(Optional.of(new Timetable(departure, arrival, yearMonth, Arrays.asList(flights))));
+    }
+
+    private static RouteGraph getRoutes() {
+        return new RouteGraph.Builder()
+                .addRoute("MAD", "ALC")
+                .addRoute("MAD", "DUB")
+                .addRoute("DUB", "TNF")
+                .build();
     }
 
     static Stream<Arguments> getFlights_exception() {
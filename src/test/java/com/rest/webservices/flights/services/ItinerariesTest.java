@@ -0,0 +1,74 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class ItinerariesTest {
+
+    private final LocalDateTime start = LocalDateTime.of(2019, 5, 6, 0, 0);
+
+    @Test
+    void connect() {
+        Flight longFirst = new Flight("1", "MAD", "DUB", start.plusHours(6), start.plusHours(14));
+        Flight shortFirst = new Flight("2", "MAD", "DUB", start.plusHours(8), start.plusHours(10));
+        Flight noConnection = new Flight("3", "MAD", "DUB", start.plusHours(20), start.plusHours(22));
+        Flight second1 = new Flight("4", "DUB", "TNF", start.plusHours(12), start.plusHours(15));
+        Flight second2 = new Flight("5", "DUB", "TNF", start.plusHours(16), start.plusHours(19));
+
+        List<List<Flight>> itineraries = Itineraries.connect(Arrays.asList(longFirst, shortFirst, noConnection),
+                Arrays.asList(second1, second2), 2);
+
+        assertThat(itineraries, contains(
+                Arrays.asList(longFirst, second2),
+                Arrays.asList(shortFirst, second1),
+                Arrays.asList(shortFirst, second2)));
+    }
+
+    @Test
+    void connect_noFlights() {
+        assertThat(Itineraries.connect(Collections.emptyList(),
+                Arrays.asList(new Flight("1", "DUB", "TNF", start, start.plusHours(3))), 2), is(empty()));
+        assertThat(Itineraries.connect(Arrays.asList(new Flight("1", "MAD", "DUB", start, start.plusHours(3))),
+                Collections.emptyList(), 2), is(empty()));
+    }
+
+    @Test
+    void connect_sameAsFilteringEachFirstLeg() {
+        Random random = new Random(42);
+        List<Flight> firstLegs = flights(random, "MAD", "DUB");
+        List<Flight> secondLegs = flights(random, "DUB", "TNF");
+
+        List<List<Flight>> expected = new ArrayList<>();
+        for (Flight first : firstLegs) {
+            for (Flight second : secondLegs) {
+                if (!second.getDepartureDateTime().isBefore(first.getArrivalDateTime().plusHours(2))) {
+                    expected.add(Arrays.asList(first, second));
+                }
+            }
+        }
+
+        assertThat(Itineraries.connect(firstLegs, secondLegs, 2), is(expected));
+    }
+
+    private List<Flight> flights(Random random, String departure, String arrival) {
+        List<Flight> flights = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            LocalDateTime departureDateTime = start.plusMinutes(random.nextInt(30 * 24 * 60));
+            flights.add(new Flight(String.valueOf(i), departure, arrival, departureDateTime,
+                    departureDateTime.plusMinutes(30 + random.nextInt(600))));
+        }
+        flights.sort(Comparator.comparing(Flight::getDepartureDateTime));
+        return flights;
+    }
+}
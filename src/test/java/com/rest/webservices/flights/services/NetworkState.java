@@ -0,0 +1,138 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.fake.SyntheticNetwork;
+import com.rest.webservices.flights.integration.RyanairApiService;
+import com.rest.webservices.flights.integration.response.DayResponse;
+import com.rest.webservices.flights.integration.response.FlightResponse;
+import com.rest.webservices.flights.integration.response.ScheduleResponse;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Synthetic routes graph and timetables shared by the benchmarks. The timetables are served by a fake upstream from
+ * the {@link SyntheticNetwork} and cached by a real {@link ScheduleFlightsService}, so after the first invocation the
+ * searches only hit the cache, as the crawled months do in production.
+ * The search goes from the biggest hub to the second one, over one day of the next month.
+ */
+@State(Scope.Benchmark)
+public class NetworkState {
+
+    /**
+     * Shapes of network: airports, mean routes per airport, skew of the hubs and flights per day of each route
+     */
+    public enum Network {
+        REGIONAL(40, 4, 0.5, 2),
+        FULL(230, 18, 1.0, 3),
+        HUB(60, 20, 1.5, 6);
+
+        private final int airports;
+        private final int meanDegree;
+        private final double skew;
+        private final int flightsPerDay;
+
+        Network(int airports, int meanDegree, double skew, int flightsPerDay) {
+            this.airports = airports;
+            this.meanDegree = meanDegree;
+            this.skew = skew;
+            this.flightsPerDay = flightsPerDay;
+        }
+    }
+
+    @Param({"REGIONAL", "FULL", "HUB"})
+    public Network network;
+
+    public RouteGraph graph;
+    public RouteService routeService;
+    public ScheduleFlightsService scheduleFlightsService;
+    public String from = "AAA";
+    public String to = "AAB";
+    public LocalDateTime departureDateTime;
+    public LocalDateTime arrivalDateTime;
+    public List<YearMonth> yearMonths = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticNetwork synthetic = new SyntheticNetwork(1, network.airports, network.meanDegree, network.skew,
+                network.flightsPerDay);
+        RouteGraph.Builder builder = new RouteGraph.Builder();
+        for (String airport : synthetic.getAirports()) {
+            synthetic.getDestinations(airport).forEach(destination -> builder.addRoute(airport, destination));
+        }
+        graph = builder.build();
+
+        SyntheticUpstream upstream = new SyntheticUpstream(synthetic, graph);
+        routeService = new RouteService();
+        ReflectionTestUtils.setField(routeService, "ryanairApiService", upstream);
+        scheduleFlightsService = new ScheduleFlightsService();
+        ReflectionTestUtils.setField(scheduleFlightsService, "ryanairApiService", upstream);
+        ReflectionTestUtils.setField(scheduleFlightsService, "cacheManager", new ConcurrentMapCacheManager());
+        ReflectionTestUtils.setField(scheduleFlightsService, "upstreamExecutor", (Executor) Runnable::run);
+
+        LocalDate date = LocalDate.now().plusMonths(1).withDayOfMonth(10);
+        departureDateTime = date.atStartOfDay();
+        arrivalDateTime = date.plusDays(1).atTime(23, 59);
+        yearMonths.add(YearMonth.from(date));
+    }
+
+    /**
+     * Answers the routes and the schedules with the synthetic network, without HTTP
+     */
+    static class SyntheticUpstream extends RyanairApiService {
+        private final SyntheticNetwork network;
+        private final RouteGraph graph;
+
+        SyntheticUpstream(SyntheticNetwork network, RouteGraph graph) {
+            this.network = network;
+            this.graph = graph;
+        }
+
+        @Override
+        public RouteGraph getRoutes() {
+            return graph;
+        }
+
+        @Override
+        public CompletableFuture<Optional<ScheduleResponse>> getSchedulesAsync(String departure, String arrival,
+                                                                               Integer year, Integer month) {
+            if (!network.hasRoute(departure, arrival)) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            List<List<Object[]>> schedules = network.getSchedules(departure, arrival, YearMonth.of(year, month));
+            List<DayResponse> days = new ArrayList<>(schedules.size());
+            for (int day = 0; day < schedules.size(); day++) {
+                List<FlightResponse> flights = new ArrayList<>();
+                for (Object[] flight : schedules.get(day)) {
+                    flights.add(new FlightResponse("FR", (String) flight[0], (LocalTime) flight[1], (LocalTime) flight[2]));
+                }
+                days.add(new DayResponse(day + 1, flights));
+            }
+            return CompletableFuture.completedFuture(Optional.of(new ScheduleResponse(month, days)));
+        }
+
+        @Override
+        public boolean isSchedulesCircuitOpen() {
+            return false;
+        }
+
+        @Override
+        public boolean isRoutesCircuitOpen() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class RoundBasedSearchServiceTest extends AbstractSearchEngineTest {
+
+    @InjectMocks
+    private RoundBasedSearchService roundBasedSearchService;
+
+    @Override
+    List<List<Flight>> getConnectionsFlights(RouteGraph routes, String arrival, int numMaxStops, boolean optimal) {
+        return roundBasedSearchService.getConnectionsFlights(routes, months,
+                "MAD", departureDate, arrival, arrivalDate, numMaxStops, TIME_BETWEEN_STOPS_IN_HOURS, optimal,
+                new ScheduleLookup(scheduleFlightsService));
+    }
+
+    @Test
+    void getConnectionsFlights_loadsEachTimetableOnce() {
+        mockScheduledFlights();
+        getConnectionsFlights(getRoutes(), "TNF", 2, false);
+
+        // MAD->TNF is direct, it is not part of any itinerary with connections
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(eq("MAD"), eq("TNF"), any(), any());
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(eq("ALC"), eq("TNF"), any(), any());
+        verify(scheduleFlightsService, times(5)).getScheduledFlightsByMonthAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getConnectionsFlights_optimal() {
+        mockScheduledFlights();
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "TNF", 1, true);
+
+        assertThat(numbers(itineraries), contains(
+                Arrays.asList("1", "7"),
+                Arrays.asList("3", "5")));
+    }
+
+    @Test
+    void getConnectionsFlights_everyLabelExtended() {
+        flights = new ArrayList<>(flights);
+        flights.add(flight("11", "ALC", "TNF", 6, 15, 0, 17, 0));
+        mockScheduledFlights();
+        List<List<Flight>> itineraries = getConnectionsFlights(getRoutes(), "TNF", 2, false);
+
+        // ALC extends the label of 3 too, although the one of 2 is ready before and takes every flight it takes
+        assertThat(numbers(itineraries), contains(
+                Arrays.asList("1", "7"),
+                Arrays.asList("1", "8"),
+                Arrays.asList("2", "11"),
+                Arrays.asList("2", "5"),
+                Arrays.asList("3", "5"),
+                Arrays.asList("1", "10", "11"),
+                Arrays.asList("1", "10", "5")));
+    }
+}
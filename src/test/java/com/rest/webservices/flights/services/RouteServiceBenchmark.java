@@ -0,0 +1,28 @@
+package com.rest.webservices.flights.services;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enumeration of the routes between the two biggest hubs with {@link RouteService#getRoutesWithConnections}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouteServiceBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int stops;
+
+    private final RouteService routeService = new RouteService();
+
+    @Benchmark
+    public List<List<String>> getRoutesWithConnections(NetworkState state) {
+        return routeService.getRoutesWithConnections(state.graph, state.from, state.to, stops);
+    }
+}
@@ -1,10 +1,10 @@
 package com.rest.webservices.flights.services;
 
 import static org.hamcrest.Matchers.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 import com.rest.webservices.flights.integration.RyanairApiService;
-import com.rest.webservices.flights.integration.response.RouteResponse;
+import com.rest.webservices.flights.model.RouteGraph;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
@@ -27,65 +27,54 @@ class RouteServiceTest {
 
     @Test
     void getAllAvailableRoutes_empty() {
-        when(ryanairApiService.getRoutes()).thenReturn(Collections.EMPTY_LIST);
-        assertThat(routeService.getAllAvailableRoutes(), is(anEmptyMap()));
+        when(ryanairApiService.getRoutes()).thenReturn(RouteGraph.EMPTY);
+        assertThat(routeService.getAllAvailableRoutes().isEmpty(), is(true));
+        // requested again until there is a graph
+        routeService.getAllAvailableRoutes();
+        verify(ryanairApiService, times(2)).getRoutes();
     }
 
     @Test
-    void getAllAvailableRoutes_oneRoute() {
-        when(ryanairApiService.getRoutes())
-                .thenReturn(Arrays.asList(getRouteMock("ALC", "BCN")));
-        Map<String, List<String>> graph = routeService.getAllAvailableRoutes();
-        assertThat(graph, aMapWithSize(2));
-        assertThat(graph, hasEntry("ALC", Arrays.asList("BCN")));
-        assertThat(graph, hasEntry("BCN", Collections.EMPTY_LIST));
+    void getAllAvailableRoutes_requestedOncePerRoutesRefresh() {
+        RouteGraph graph = new RouteGraph.Builder().addRoute("ALC", "BCN").build();
+        RouteGraph refreshed = new RouteGraph.Builder().addRoute("ALC", "BCN").addRoute("BCN", "MAD").build();
+        when(ryanairApiService.getRoutes()).thenReturn(graph).thenReturn(refreshed);
+        assertThat(routeService.getAllAvailableRoutes(), is(sameInstance(graph)));
+        assertThat(routeService.getAllAvailableRoutes(), is(sameInstance(graph)));
+        verify(ryanairApiService, times(1)).getRoutes();
+
+        routeService.refresh();
+        assertThat(routeService.getAllAvailableRoutes(), is(sameInstance(refreshed)));
+        // the graph taken before the refresh does not change
+        assertThat(graph.hasRoute("BCN", "MAD"), is(false));
     }
 
     @Test
-    void getAllAvailableRoutes_repeatedRoutes() {
-        when(ryanairApiService.getRoutes())
-                .thenReturn(Arrays.asList(getRouteMock("ALC", "BCN"), getRouteMock("ALC", "BCN"), getRouteMock("ALC", "BCN")));
-        Map<String, List<String>> graph = routeService.getAllAvailableRoutes();
-        assertThat(graph, aMapWithSize(2));
-        assertThat(graph, hasEntry("ALC", Arrays.asList("BCN")));
-        assertThat(graph, hasEntry("BCN", Collections.EMPTY_LIST));
+    void refresh_failureKeepsTheGraph() {
+        RouteGraph graph = new RouteGraph.Builder().addRoute("ALC", "BCN").build();
+        when(ryanairApiService.getRoutes()).thenReturn(graph).thenReturn(RouteGraph.EMPTY).thenReturn(graph);
+        routeService.getAllAvailableRoutes();
+
+        assertThat(routeService.isStale(), is(false));
+        routeService.refresh();
+
+        assertThat(routeService.getAllAvailableRoutes(), is(sameInstance(graph)));
+        assertThat(routeService.isStale(), is(true));
+        routeService.refresh();
+        assertThat(routeService.isStale(), is(false));
     }
 
     @Test
-    void getAllAvailableRoutes_routesWithOperatorDifferentFromRyanair() {
-        when(ryanairApiService.getRoutes())
-                .thenReturn(Arrays.asList(getRouteMock("ALC", "BCN", "otroOperator", null)));
-        assertThat(routeService.getAllAvailableRoutes(), is(anEmptyMap()));
-    }
-
-    @Test
-    void getAllAvailableRoutes_routesWithConnectionAirport() {
-        when(ryanairApiService.getRoutes())
-                .thenReturn(Arrays.asList(getRouteMock("ALC", "BCN", "RYANAIR", "MAD")));
-        assertThat(routeService.getAllAvailableRoutes(), is(anEmptyMap()));
-    }
-
-
-    @Test
-    void getAllAvailableRoutes() {
-        when(ryanairApiService.getRoutes())
-                .thenReturn(Arrays.asList(
-                        getRouteMock("ALC", "BCN"),
-                        getRouteMock("ALC", "DUB"),
-                        getRouteMock("ABC", "BCN"),
-                        getRouteMock("LLO", "BCN"),
-                        getRouteMock("BCN", "MAD"),
-                        getRouteMock("MAD", "ALC")
-                ));
-        Map<String, List<String>> graph = routeService.getAllAvailableRoutes();
-
-        assertThat(graph, aMapWithSize(6));
-        assertThat(graph, hasEntry("ALC", Arrays.asList("BCN", "DUB")));
-        assertThat(graph, hasEntry("ABC", Arrays.asList("BCN")));
-        assertThat(graph, hasEntry("LLO", Arrays.asList("BCN")));
-        assertThat(graph, hasEntry("BCN", Arrays.asList("MAD")));
-        assertThat(graph, hasEntry("MAD", Arrays.asList("ALC")));
-        assertThat(graph, hasEntry("DUB", Collections.EMPTY_LIST));
+    void restore() {
+        RouteGraph restored = new RouteGraph.Builder().addRoute("ALC", "BCN").build();
+        routeService.restore(restored);
+
+        assertThat(routeService.getCurrentRoutes(), is(sameInstance(restored)));
+        assertThat(routeService.getAllAvailableRoutes(), is(sameInstance(restored)));
+        verify(ryanairApiService, never()).getRoutes();
+        // the graph retrieved is not replaced
+        routeService.restore(new RouteGraph.Builder().addRoute("BCN", "MAD").build());
+        assertThat(routeService.getCurrentRoutes(), is(sameInstance(restored)));
     }
 
     @Test
@@ -110,27 +99,88 @@ class RouteServiceTest {
         assertThat(routes, hasItem(Arrays.asList("MAD", "LLO", "ALC", "DUB")));
     }
 
-    private Map<String, List<String>> getRoutesGraph() {
-        Map<String, List<String>> map = new HashMap<>();
-        map.put("ALC", Arrays.asList("BCN", "DUB"));
-        map.put("ABC", Arrays.asList("BCN"));
-        map.put("LLO", Arrays.asList("ALC", "DUB"));
-        map.put("BCN", Arrays.asList("MAD", "DUB"));
-        map.put("MAD", Arrays.asList("ALC", "LLO"));
-        map.put("DUB", Arrays.asList("MAD"));
-        return map;
+    @Test
+    void getRoutesWithConnections_oneStopInDestinationsOrder() {
+        RouteGraph graph = new RouteGraph.Builder()
+                .addRoute("ALC", "DUB")
+                .addRoute("MAD", "LLO")
+                .addRoute("LLO", "DUB")
+                .addRoute("MAD", "ALC")
+                .build();
+        // ALC has a lower id than LLO but it is the second destination of MAD
+        assertThat(routeService.getRoutesWithConnections(graph, "MAD", "DUB", 1), contains(
+                Arrays.asList("MAD", "LLO", "DUB"),
+                Arrays.asList("MAD", "ALC", "DUB")));
+    }
+
+    @Test
+    void getRoutesWithConnections_destinationIsNotAStop() {
+        RouteGraph graph = new RouteGraph.Builder()
+                .addRoute("MAD", "BCN")
+                .addRoute("MAD", "DUB")
+                .addRoute("DUB", "BCN")
+                .addRoute("BCN", "DUB")
+                .build();
+        // MAD-DUB-BCN-DUB would land in DUB and leave it again
+        assertThat(routeService.getRoutesWithConnections(graph, "MAD", "DUB", 2), is(empty()));
+    }
+
+    @Test
+    void getRoutesWithConnections_noCycles() {
+        RouteGraph graph = new RouteGraph.Builder()
+                .addRoute("MAD", "BCN")
+                .addRoute("BCN", "MAD")
+                .addRoute("MAD", "DUB")
+                .build();
+        // MAD-BCN-MAD-DUB goes back to an airport of the route in the last stop
+        assertThat(routeService.getRoutesWithConnections(graph, "MAD", "DUB", 2), is(empty()));
     }
 
-    private RouteResponse getRouteMock(String from, String to, String operator, String connectingAirport) {
-        RouteResponse r = new RouteResponse();
-        r.setAirportFrom(from);
-        r.setAirportTo(to);
-        r.setOperator(operator);
-        r.setConnectingAirport(connectingAirport);
-        return r;
+    @Test
+    void getRoutesWithConnections_stopSharedByRoutesAtDifferentPositions() {
+        RouteGraph graph = new RouteGraph.Builder()
+                .addRoute("MAD", "ALC")
+                .addRoute("MAD", "BCN")
+                .addRoute("BCN", "ALC")
+                .addRoute("ALC", "LLO")
+                .addRoute("ALC", "ABC")
+                .addRoute("ABC", "LLO")
+                .addRoute("LLO", "DUB")
+                .build();
+        // ALC is the first stop of one route and the second one of the other
+        List<List<String>> routes = routeService.getRoutesWithConnections(graph, "MAD", "DUB", 3);
+        assertThat(routes, contains(
+                Arrays.asList("MAD", "ALC", "ABC", "LLO", "DUB"),
+                Arrays.asList("MAD", "BCN", "ALC", "LLO", "DUB")));
+    }
+
+    @Test
+    void getRoutesWithConnections_oneStopHubs() {
+        RouteGraph graph = getRoutesGraph();
+        assertThat(routeService.getRoutesWithConnections(graph, "MAD", "DUB", 1), contains(
+                Arrays.asList("MAD", "ALC", "DUB"),
+                Arrays.asList("MAD", "LLO", "DUB")));
+        assertThat(routeService.getRoutesWithConnections(graph, "ALC", "MAD", 1), contains(
+                Arrays.asList("ALC", "BCN", "MAD"),
+                Arrays.asList("ALC", "DUB", "MAD")));
+        assertThat(routeService.getRoutesWithConnections(graph, "MAD", "ALC", 1), contains(
+                Arrays.asList("MAD", "LLO", "ALC")));
+        assertThat(routeService.getRoutesWithConnections(graph, "ABC", "ALC", 1), is(empty()));
+        assertThat(routeService.getRoutesWithConnections(graph, "XXX", "ALC", 1), is(empty()));
     }
 
-    private RouteResponse getRouteMock(String from, String to) {
-        return getRouteMock(from, to, "RYANAIR", null);
+    private RouteGraph getRoutesGraph() {
+        return new RouteGraph.Builder()
+                .addRoute("ALC", "BCN")
+                .addRoute("ALC", "DUB")
+                .addRoute("ABC", "BCN")
+                .addRoute("LLO", "ALC")
+                .addRoute("LLO", "DUB")
+                .addRoute("BCN", "MAD")
+                .addRoute("BCN", "DUB")
+                .addRoute("MAD", "ALC")
+                .addRoute("MAD", "LLO")
+                .addRoute("DUB", "MAD")
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -6,22 +6,33 @@ import com.rest.webservices.flights.integration.response.FlightResponse;
 import com.rest.webservices.flights.integration.response.ScheduleResponse;
 import com.rest.webservices.flights.model.Flight;
 import com.rest.webservices.flights.model.Timetable;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.YearMonth;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -31,25 +42,33 @@ class ScheduleFlightsServiceTest {
     @Mock
     private RyanairApiService ryanairApiService;
 
+    @Spy
+    private CacheManager cacheManager = new ConcurrentMapCacheManager();
+
     @InjectMocks
     private ScheduleFlightsService scheduleFlightsService;
 
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(scheduleFlightsService, "upstreamExecutor", (Executor) Runnable::run);
+    }
+
     @Test
     void getScheduledFlightsByMonths_emptyScheduledFlights() {
-        when(ryanairApiService.getSchedules(any(), anyString(), anyInt(), anyInt())).thenReturn(Optional.empty());
+        when(ryanairApiService.getSchedulesAsync(any(), anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
         YearMonth yearMonth = YearMonth.now();
-        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonth("MAD", "DUB", yearMonth);
+        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join();
         assertThat(timetable, is(Optional.empty()));
-        verify(ryanairApiService).getSchedules("MAD", "DUB", yearMonth.getYear(), yearMonth.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", yearMonth.getYear(), yearMonth.getMonthValue());
     }
 
     @Test
-    void getScheduledFlightsByMonth() {
+    void getScheduledFlightsByMonthAsync() {
         YearMonth yearMonth = YearMonth.of(2018, 5);
         int day1 = 2;
         int day2 = 31;
-        when(ryanairApiService.getSchedules(any(), anyString(), anyInt(), anyInt())).thenReturn(getScheduled(yearMonth, day1, day2));
-        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonth("MAD", "DUB", yearMonth);
+        when(ryanairApiService.getSchedulesAsync(any(), anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, day1, day2)));
+        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join();
         assertThat(timetable, not(Optional.empty()));
         Timetable t = timetable.get();
         assertThat(t.getDeparture(), is("MAD"));
@@ -94,7 +113,7 @@ class ScheduleFlightsServiceTest {
                                 is(LocalDateTime.of(yearMonth.getYear(), yearMonth.plusMonths(1).getMonthValue(), 1, 0, 20)))
                 )
         ));
-        verify(ryanairApiService).getSchedules("MAD", "DUB", yearMonth.getYear(), yearMonth.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", yearMonth.getYear(), yearMonth.getMonthValue());
     }
 
     private Optional<ScheduleResponse> getScheduled(YearMonth yearMonth, int day1, int day2) {
@@ -115,22 +134,22 @@ class ScheduleFlightsServiceTest {
         LocalDateTime arrivalDate = LocalDateTime.of(2020, 1, 05, 14, 35);
 
         //no flights for month1
-        when(ryanairApiService.getSchedules("MAD", "DUB", month1.getYear(), month1.getMonthValue()))
-                .thenReturn(Optional.empty());
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", month1.getYear(), month1.getMonthValue()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 
         //return timetable with flights on days 7th an 8th for month2. These flights are after arrivalDate
-        when(ryanairApiService.getSchedules("MAD", "DUB", month2.getYear(), month2.getMonthValue()))
-                .thenReturn(getScheduled(month2, 7, 8));
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", month2.getYear(), month2.getMonthValue()))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(month2, 7, 8)));
 
-        List<Flight> flights = scheduleFlightsService.getScheduledFlights("MAD", "DUB", months, departureDate, arrivalDate);
+        List<Flight> flights = scheduleFlightsService.getScheduledFlightsAsync("MAD", "DUB", months, departureDate, arrivalDate).join();
         assertThat(flights, is(empty()));
 
-        verify(ryanairApiService).getSchedules("MAD", "DUB", month1.getYear(), month1.getMonthValue());
-        verify(ryanairApiService).getSchedules("MAD", "DUB", month2.getYear(), month2.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", month1.getYear(), month1.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", month2.getYear(), month2.getMonthValue());
     }
 
     @Test
-    void getScheduledFlights() {
+    void getScheduledFlightsAsync() {
         YearMonth month1 = YearMonth.of(2019, 12);
         YearMonth month2 = YearMonth.of(2020, 01);
 
@@ -138,13 +157,13 @@ class ScheduleFlightsServiceTest {
         LocalDateTime departureDate = LocalDateTime.of(2019, 12, 21, 3, 0);
         LocalDateTime arrivalDate = LocalDateTime.of(2020, 1, 05, 14, 35);
 
-        when(ryanairApiService.getSchedules("MAD", "DUB", month1.getYear(), month1.getMonthValue()))
-                .thenReturn(getScheduled(month1, 2, 21));
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", month1.getYear(), month1.getMonthValue()))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(month1, 2, 21)));
 
-        when(ryanairApiService.getSchedules("MAD", "DUB", month2.getYear(), month2.getMonthValue()))
-                .thenReturn(getScheduled(month2, 3, 5));
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", month2.getYear(), month2.getMonthValue()))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(month2, 3, 5)));
 
-        List<Flight> flights = scheduleFlightsService.getScheduledFlights("MAD", "DUB", months, departureDate, arrivalDate);
+        List<Flight> flights = scheduleFlightsService.getScheduledFlightsAsync("MAD", "DUB", months, departureDate, arrivalDate).join();
         assertThat(flights, hasSize(5));
         assertThat(flights, everyItem(hasProperty("departureDateTime", is(greaterThanOrEqualTo(departureDate)))));
         assertThat(flights, everyItem(hasProperty("arrivalDateTime", is(lessThanOrEqualTo(arrivalDate)))));
@@ -195,8 +214,165 @@ class ScheduleFlightsServiceTest {
                                 is(LocalDateTime.of(month2.getYear(), month2.getMonthValue(), 5, 6, 20)))
                 )
         ));
-        verify(ryanairApiService).getSchedules("MAD", "DUB", month1.getYear(), month1.getMonthValue());
-        verify(ryanairApiService).getSchedules("MAD", "DUB", month2.getYear(), month2.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", month1.getYear(), month1.getMonthValue());
+        verify(ryanairApiService).getSchedulesAsync("MAD", "DUB", month2.getYear(), month2.getMonthValue());
+    }
+
+    @Test
+    void getScheduledFlightsByMonth_cachedOnceConverted() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)));
+
+        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join();
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join().get(), is(sameInstance(timetable.get())));
+        assertThat(timetable.get().getFlights(), contains(
+                hasProperty("departureDateTime", is(LocalDateTime.of(2018, 5, 2, 3, 0))),
+                hasProperty("departureDateTime", is(LocalDateTime.of(2018, 5, 2, 21, 0))),
+                hasProperty("departureDateTime", is(LocalDateTime.of(2018, 5, 31, 3, 0))),
+                hasProperty("departureDateTime", is(LocalDateTime.of(2018, 5, 31, 21, 0)))));
+        verify(ryanairApiService, times(1)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonth_noScheduleCached() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join(), is(Optional.empty()));
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join(), is(Optional.empty()));
+        verify(ryanairApiService, times(1)).getSchedulesAsync(any(), any(), any(), any());
+        assertThat(cacheManager.getCache("noScheduleCache").get(new SimpleKey("MAD", "DUB", yearMonth)), is(notNullValue()));
+        assertThat(cacheManager.getCache("scheduleCache").get(new SimpleKey("MAD", "DUB", yearMonth)), is(nullValue()));
     }
 
-}
\ No newline at end of file
+    @Test
+    void getScheduledFlightsByMonth_failureNotCached() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        CompletableFuture<Optional<ScheduleResponse>> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new IllegalStateException("timeout"));
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(failure)
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)));
+
+        AtomicInteger unavailable = new AtomicInteger();
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, unavailable::incrementAndGet)
+                .join(), is(Optional.empty()));
+        assertThat(unavailable.get(), is(1));
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join().get().getFlights(), hasSize(4));
+        verify(ryanairApiService, times(2)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonth_upstreamThrows() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenThrow(new IllegalStateException("rejected"))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)));
+
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join(), is(Optional.empty()));
+        // the failed request is not left in flight
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join().get().getFlights(), hasSize(4));
+        verify(ryanairApiService, times(2)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonth_staleServedOnFailure() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        CompletableFuture<Optional<ScheduleResponse>> failure = new CompletableFuture<>();
+        failure.completeExceptionally(new IllegalStateException("timeout"));
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)))
+                .thenReturn(failure);
+
+        AtomicInteger staleServed = new AtomicInteger();
+        Optional<Timetable> timetable = scheduleFlightsService
+                .getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, staleServed::incrementAndGet).join();
+        assertThat(staleServed.get(), is(0));
+        // expired
+        cacheManager.getCache("scheduleCache").clear();
+
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, staleServed::incrementAndGet)
+                .join().get(), is(sameInstance(timetable.get())));
+        assertThat(staleServed.get(), is(1));
+        assertThat(cacheManager.getCache("scheduleCache").get(new SimpleKey("MAD", "DUB", yearMonth)), is(nullValue()));
+        verify(ryanairApiService, times(2)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_staleServedWhileCircuitOpen() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)));
+        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join();
+        cacheManager.getCache("scheduleCache").clear();
+        when(ryanairApiService.isSchedulesCircuitOpen()).thenReturn(true);
+
+        // served straight away, the upstream is not requested
+        AtomicInteger staleServed = new AtomicInteger();
+        CompletableFuture<Optional<Timetable>> stale = scheduleFlightsService
+                .getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, staleServed::incrementAndGet);
+        assertThat(stale.isDone(), is(true));
+        assertThat(stale.join().get(), is(sameInstance(timetable.get())));
+        assertThat(staleServed.get(), is(1));
+        verify(ryanairApiService, times(1)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_unavailableWhileCircuitOpen() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        when(ryanairApiService.isSchedulesCircuitOpen()).thenReturn(true);
+
+        AtomicInteger unavailable = new AtomicInteger();
+        CompletableFuture<Optional<Timetable>> timetable = scheduleFlightsService
+                .getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, unavailable::incrementAndGet);
+
+        assertThat(timetable.join(), is(Optional.empty()));
+        assertThat(unavailable.get(), is(1));
+        verify(ryanairApiService, never()).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_concurrentCallsShareTheUpstreamRequest() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        CompletableFuture<Optional<ScheduleResponse>> response = new CompletableFuture<>();
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5)).thenReturn(response);
+
+        CompletableFuture<Optional<Timetable>> first = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth);
+        CompletableFuture<Optional<Timetable>> second = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth);
+        assertThat(second.isDone(), is(false));
+
+        response.complete(getScheduled(yearMonth, 2, 31));
+        assertThat(first.join().get().getFlights(), hasSize(4));
+        assertThat(second.join(), is(sameInstance(first.join())));
+        // once answered the timetable comes from the cache
+        assertThat(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join(), is(first.join()));
+        verify(ryanairApiService, times(1)).getSchedulesAsync(any(), any(), any(), any());
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_staleReportedToTheCallersWaiting() {
+        YearMonth yearMonth = YearMonth.of(2018, 5);
+        CompletableFuture<Optional<ScheduleResponse>> response = new CompletableFuture<>();
+        when(ryanairApiService.getSchedulesAsync("MAD", "DUB", 2018, 5))
+                .thenReturn(CompletableFuture.completedFuture(getScheduled(yearMonth, 2, 31)))
+                .thenReturn(response);
+        Optional<Timetable> timetable = scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth).join();
+        cacheManager.getCache("scheduleCache").clear();
+
+        AtomicInteger firstStale = new AtomicInteger();
+        AtomicInteger secondStale = new AtomicInteger();
+        CompletableFuture<Optional<Timetable>> first = scheduleFlightsService
+                .getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, firstStale::incrementAndGet);
+        CompletableFuture<Optional<Timetable>> second = scheduleFlightsService
+                .getScheduledFlightsByMonthAsync("MAD", "DUB", yearMonth, secondStale::incrementAndGet);
+        response.completeExceptionally(new IllegalStateException("timeout"));
+
+        assertThat(first.join().get(), is(sameInstance(timetable.get())));
+        assertThat(second.join().get(), is(sameInstance(timetable.get())));
+        assertThat(firstStale.get(), is(1));
+        assertThat(secondStale.get(), is(1));
+        verify(ryanairApiService, times(2)).getSchedulesAsync(any(), any(), any(), any());
+    }
+}
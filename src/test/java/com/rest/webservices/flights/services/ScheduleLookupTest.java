@@ -0,0 +1,82 @@
+package com.rest.webservices.flights.services;
+
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.Timetable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ScheduleLookupTest {
+
+    @Mock
+    private ScheduleFlightsService scheduleFlightsService;
+
+    private final YearMonth may = YearMonth.of(2019, 5);
+    private final YearMonth june = YearMonth.of(2019, 6);
+
+    @Test
+    void getScheduledFlightsAsync_monthsRequestedOnce() {
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new Timetable("MAD", "DUB", may, Arrays.asList(
+                        new Flight("1", "MAD", "DUB", LocalDateTime.of(2019, 5, 6, 10, 0), LocalDateTime.of(2019, 5, 6, 12, 0)),
+                        new Flight("2", "MAD", "DUB", LocalDateTime.of(2019, 5, 7, 10, 0), LocalDateTime.of(2019, 5, 7, 12, 0)))))));
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(june), any()))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+        ScheduleLookup lookup = new ScheduleLookup(scheduleFlightsService);
+
+        List<Flight> all = lookup.getScheduledFlightsAsync("MAD", "DUB", Arrays.asList(may, june),
+                LocalDateTime.of(2019, 5, 1, 0, 0), LocalDateTime.of(2019, 6, 30, 0, 0)).join();
+        List<Flight> later = lookup.getScheduledFlightsAsync("MAD", "DUB", Arrays.asList(may, june),
+                LocalDateTime.of(2019, 5, 7, 0, 0), LocalDateTime.of(2019, 6, 30, 0, 0)).join();
+
+        assertThat(all, contains(hasProperty("number", is("1")), hasProperty("number", is("2"))));
+        assertThat(later, contains(hasProperty("number", is("2"))));
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any());
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(june), any());
+        assertThat(lookup.getPerformed(), is(2));
+        assertThat(lookup.getSaved(), is(2));
+        assertThat(lookup.isStale(), is(false));
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_staleRecorded() {
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any()))
+                .thenAnswer(invocation -> {
+                    invocation.getArgument(3, Runnable.class).run();
+                    return CompletableFuture.completedFuture(Optional.empty());
+                });
+        ScheduleLookup lookup = new ScheduleLookup(scheduleFlightsService);
+
+        lookup.getScheduledFlightsByMonthAsync("MAD", "DUB", may).join();
+
+        assertThat(lookup.isStale(), is(true));
+        // recorded for the search only
+        assertThat(new ScheduleLookup(scheduleFlightsService).isStale(), is(false));
+    }
+
+    @Test
+    void getScheduledFlightsByMonthAsync_lookupsAreNotShared() {
+        CompletableFuture<Optional<Timetable>> timetable = CompletableFuture.completedFuture(Optional.empty());
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any())).thenReturn(timetable);
+
+        assertThat(new ScheduleLookup(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "DUB", may), is(sameInstance(timetable)));
+        assertThat(new ScheduleLookup(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "DUB", may), is(sameInstance(timetable)));
+
+        verify(scheduleFlightsService, times(2)).getScheduledFlightsByMonthAsync(eq("MAD"), eq("DUB"), eq(may), any());
+    }
+}
@@ -0,0 +1,225 @@
+package com.rest.webservices.flights.services;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rest.webservices.flights.model.Flight;
+import com.rest.webservices.flights.model.RouteGraph;
+import com.rest.webservices.flights.model.Timetable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotServiceTest {
+
+    @Mock
+    private RouteService routeService;
+
+    @Mock
+    private ScheduleFlightsService scheduleFlightsService;
+
+    @InjectMocks
+    private SnapshotService snapshotService;
+
+    @TempDir
+    Path folder;
+
+    private Path file;
+
+    private final YearMonth may = YearMonth.of(2019, 5);
+
+    @BeforeEach
+    void setUp() {
+        file = folder.resolve("flights.snapshot");
+        ReflectionTestUtils.setField(snapshotService, "file", file.toString());
+        ReflectionTestUtils.setField(snapshotService, "upstreamExecutor", (Executor) Runnable::run);
+        lenient().when(routeService.getCurrentRoutes()).thenReturn(RouteGraph.EMPTY);
+    }
+
+    @Test
+    void writeAndLoad() {
+        CacheManager cacheManager = new ConcurrentMapCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", cacheManager);
+        RouteGraph routes = new RouteGraph.Builder().addRoute("MAD", "BCN").addRoute("BCN", "DUB").build();
+        Timetable timetable = new Timetable("MAD", "BCN", may, Arrays.asList(
+                new Flight("2", "MAD", "BCN", LocalDateTime.of(2019, 5, 7, 10, 0), LocalDateTime.of(2019, 5, 7, 11, 15)),
+                new Flight("1", "MAD", "BCN", LocalDateTime.of(2019, 5, 6, 23, 0), LocalDateTime.of(2019, 5, 7, 0, 30))));
+        cacheManager.getCache("scheduleCache").put(new SimpleKey("MAD", "BCN", may), Optional.of(timetable));
+        cacheManager.getCache("scheduleCache").put(new SimpleKey("MAD", "DUB", may), Optional.empty());
+        when(routeService.getCurrentRoutes()).thenReturn(routes);
+        when(scheduleFlightsService.isCached("MAD", "BCN", may)).thenReturn(false);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "BCN", may))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        snapshotService.write();
+        assertThat(Files.exists(file), is(true));
+
+        // restart with empty caches
+        CacheManager restarted = new ConcurrentMapCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", restarted);
+        snapshotService.load();
+
+        ArgumentCaptor<RouteGraph> restored = ArgumentCaptor.forClass(RouteGraph.class);
+        verify(routeService).restore(restored.capture());
+        RouteGraph loadedRoutes = restored.getValue();
+        assertThat(loadedRoutes.getRoutesCount(), is(2));
+        assertThat(loadedRoutes.getDestinations("MAD"), is(Arrays.asList("BCN")));
+        assertThat(loadedRoutes.getDestinations("BCN"), is(Arrays.asList("DUB")));
+        // the expiration of scheduleCache is unknown, only served as stale and the month is requested again
+        assertThat(restarted.getCache("scheduleCache").get(new SimpleKey("MAD", "BCN", may)), is(nullValue()));
+        Optional<?> stale = (Optional<?>) restarted.getCache("staleScheduleCache").get(new SimpleKey("MAD", "BCN", may)).get();
+        Timetable loaded = (Timetable) stale.get();
+        assertThat(loaded.getYearMonth(), is(may));
+        assertThat(loaded.getFlights(), contains(
+                allOf(hasProperty("number", is("1")), hasProperty("departureAirport", is("MAD")), hasProperty("arrivalAirport", is("BCN")),
+                        hasProperty("departureDateTime", is(LocalDateTime.of(2019, 5, 6, 23, 0))),
+                        hasProperty("arrivalDateTime", is(LocalDateTime.of(2019, 5, 7, 0, 30)))),
+                allOf(hasProperty("number", is("2")),
+                        hasProperty("departureDateTime", is(LocalDateTime.of(2019, 5, 7, 10, 0))),
+                        hasProperty("arrivalDateTime", is(LocalDateTime.of(2019, 5, 7, 11, 15))))));
+        assertThat(loaded.getFlights(LocalDateTime.of(2019, 5, 7, 0, 0), LocalDateTime.of(2019, 5, 8, 0, 0)),
+                contains(hasProperty("number", is("2"))));
+        // months without schedules are not part of the snapshot
+        assertThat(restarted.getCache("staleScheduleCache").get(new SimpleKey("MAD", "DUB", may)), is(nullValue()));
+        verify(routeService).refresh();
+        verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "BCN", may);
+    }
+
+    @Test
+    void load_freshSnapshotServedFromScheduleCache() {
+        writeTimetables(Arrays.asList("BCN"));
+        CacheManager restarted = caffeineCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", restarted);
+        when(scheduleFlightsService.isCached("MAD", "BCN", may)).thenReturn(true);
+
+        snapshotService.load();
+
+        assertThat(restarted.getCache("scheduleCache").get(new SimpleKey("MAD", "BCN", may)), is(notNullValue()));
+        assertThat(restarted.getCache("staleScheduleCache").get(new SimpleKey("MAD", "BCN", may)), is(notNullValue()));
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(any(), any(), any());
+    }
+
+    @Test
+    void load_snapshotOlderThanTheExpirationOnlyStale() throws Exception {
+        writeTimetables(Arrays.asList("BCN"));
+        // created 7 hours ago, scheduleCache expires after 6
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES)
+                    .putLong(0, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(7)), 2 * Integer.BYTES);
+        }
+        CacheManager restarted = caffeineCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", restarted);
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync("MAD", "BCN", may))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
+
+        snapshotService.load();
+
+        assertThat(restarted.getCache("scheduleCache").get(new SimpleKey("MAD", "BCN", may)), is(nullValue()));
+        assertThat(restarted.getCache("staleScheduleCache").get(new SimpleKey("MAD", "BCN", may)), is(notNullValue()));
+        verify(scheduleFlightsService).getScheduledFlightsByMonthAsync("MAD", "BCN", may);
+    }
+
+    @Test
+    void load_monthsRequestedInBatches() {
+        ReflectionTestUtils.setField(snapshotService, "refreshBatch", 1);
+        writeTimetables(Arrays.asList("BCN", "DUB"));
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", new ConcurrentMapCacheManager());
+        CompletableFuture<Optional<Timetable>> first = new CompletableFuture<>();
+        when(scheduleFlightsService.getScheduledFlightsByMonthAsync(any(), any(), any()))
+                .thenReturn(first, CompletableFuture.completedFuture(Optional.empty()));
+
+        snapshotService.load();
+
+        verify(scheduleFlightsService, times(1)).getScheduledFlightsByMonthAsync(any(), any(), any());
+        first.complete(Optional.empty());
+        verify(scheduleFlightsService, times(2)).getScheduledFlightsByMonthAsync(any(), any(), any());
+    }
+
+    @Test
+    void load_monthsCachedMeanwhileNotRequested() {
+        CacheManager cacheManager = new ConcurrentMapCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", cacheManager);
+        Timetable timetable = new Timetable("MAD", "BCN", may, Arrays.asList(
+                new Flight("1", "MAD", "BCN", LocalDateTime.of(2019, 5, 7, 10, 0), LocalDateTime.of(2019, 5, 7, 11, 15))));
+        cacheManager.getCache("scheduleCache").put(new SimpleKey("MAD", "BCN", may), Optional.of(timetable));
+        snapshotService.write();
+        when(scheduleFlightsService.isCached("MAD", "BCN", may)).thenReturn(true);
+
+        snapshotService.load();
+
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(any(), any(), any());
+    }
+
+    @Test
+    void load_unknownFormatIgnored() throws Exception {
+        CacheManager cacheManager = new ConcurrentMapCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", cacheManager);
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        snapshotService.load();
+
+        assertThat(cacheManager.getCacheNames(), is(empty()));
+        verify(routeService, never()).restore(any());
+        verify(routeService, never()).refresh();
+        verify(scheduleFlightsService, never()).getScheduledFlightsByMonthAsync(any(), any(), any());
+    }
+
+    @Test
+    void write_nothingCached() {
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", new ConcurrentMapCacheManager());
+
+        snapshotService.write();
+
+        assertThat(Files.exists(file), is(false));
+        verify(routeService, never()).getAllAvailableRoutes();
+    }
+
+    /**
+     * Write a snapshot with a timetable of may from MAD to each of the arrivals
+     */
+    private void writeTimetables(List<String> arrivals) {
+        CacheManager cacheManager = new ConcurrentMapCacheManager();
+        ReflectionTestUtils.setField(snapshotService, "cacheManager", cacheManager);
+        for (String arrival : arrivals) {
+            cacheManager.getCache("scheduleCache").put(new SimpleKey("MAD", arrival, may), Optional.of(new Timetable("MAD",
+                    arrival, may, Arrays.asList(new Flight("1", "MAD", arrival, LocalDateTime.of(2019, 5, 7, 10, 0),
+                            LocalDateTime.of(2019, 5, 7, 11, 15))))));
+        }
+        snapshotService.write();
+    }
+
+    private CacheManager caffeineCacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.registerCustomCache("scheduleCache", Caffeine.from("expireAfterWrite=6h").build());
+        cacheManager.registerCustomCache("staleScheduleCache", Caffeine.from("expireAfterWrite=7d").build());
+        return cacheManager;
+    }
+}